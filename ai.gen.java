@@ -12,32 +12,84 @@ public class SteganographyApplication extends JFrame {
     private JMenu fileMenu, encryptMenu, compressMenu, embedMenu, toolsMenu;
     private JMenuItem openItem, saveItem, exitItem;
     private JMenuItem encryptItem, decryptItem;
-    private JMenuItem compressItem, decompressItem;
+    private JMenuItem compressItem, decompressItem, trainDictionaryItem;
     private JMenuItem embedItem, extractItem;
-    private JMenuItem crcItem;
+    private JMenuItem crcItem, metricsItem;
     
     private JPanel mainPanel;
-    private JTextArea logArea;
+    private LogBuffer logBuffer;
+    private JList<String> logList;
     private JScrollPane logScrollPane;
     
-    // Core modules
+    // Core modules, each created on first use
     private InputModule inputModule;
     private EncryptionModule encryptionModule;
     private CRCModule crcModule;
     private CompressionModule compressionModule;
     private SteganographyModule steganographyModule;
+    private JobScheduler jobScheduler;
+    
+    // Dialogs are built once and reset before each showing
+    private EncryptionDialog encryptionDialog;
+    private DecryptionDialog decryptionDialog;
+    private CompressionDialog compressionDialog;
+    private DecompressionDialog decompressionDialog;
+    private EmbedDialog embedDialog;
+    private ExtractDialog extractDialog;
+    private CRCDialog crcDialog;
+    
+    static final File DICTIONARY_DIRECTORY =
+        new File(System.getProperty("user.home"), ".steganography" + File.separator + "dictionaries");
+    private static final long MAX_TRAINING_BYTES = 16L * 1024 * 1024;
+    static final String METRICS_DUMP_PROPERTY = "metrics.dump.seconds";
+    private static final int LOG_COLUMNS = 120;
     
     public SteganographyApplication() {
         initializeModules();
         initializeGUI();
     }
     
+    // Only the scheduler is needed to show the window; everything else waits
+    // for the menu item that uses it
     private void initializeModules() {
-        inputModule = new InputModule();
-        encryptionModule = new EncryptionModule();
-        crcModule = new CRCModule();
-        compressionModule = new CompressionModule();
-        steganographyModule = new SteganographyModule();
+        jobScheduler = new JobScheduler();
+    }
+    
+    // The module accessors are only called on the EDT
+    private InputModule inputModule() {
+        if (inputModule == null) {
+            inputModule = new InputModule();
+        }
+        return inputModule;
+    }
+    
+    private EncryptionModule encryptionModule() {
+        if (encryptionModule == null) {
+            encryptionModule = new EncryptionModule();
+        }
+        return encryptionModule;
+    }
+    
+    private CRCModule crcModule() {
+        if (crcModule == null) {
+            crcModule = new CRCModule();
+        }
+        return crcModule;
+    }
+    
+    private CompressionModule compressionModule() {
+        if (compressionModule == null) {
+            compressionModule = new CompressionModule();
+            loadDictionaries();
+        }
+        return compressionModule;
+    }
+    
+    private SteganographyModule steganographyModule() {
+        if (steganographyModule == null) {
+            steganographyModule = new SteganographyModule();
+        }
+        return steganographyModule;
     }
     
     private void initializeGUI() {
@@ -53,11 +105,33 @@ public class SteganographyApplication extends JFrame {
         mainPanel = new JPanel(new BorderLayout());
         
         // Create log area
-        logArea = new JTextArea(15, 60);
-        logArea.setEditable(false);
-        logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        logScrollPane = new JScrollPane(logArea);
+        // A prototype row fixes the cell size, so the list never measures every line
+        logBuffer = new LogBuffer();
+        logList = new JList<>(logBuffer);
+        logList.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        logList.setPrototypeCellValue(String.format("%-" + LOG_COLUMNS + "s", ""));
+        logList.setVisibleRowCount(15);
+        logScrollPane = new JScrollPane(logList);
         logScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        logBuffer.addListDataListener(new javax.swing.event.ListDataListener() {
+            @Override
+            public void intervalAdded(javax.swing.event.ListDataEvent e) {
+                // Follow new lines only while the view is already at the bottom
+                JScrollBar bar = logScrollPane.getVerticalScrollBar();
+                if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - logList.getFixedCellHeight()) {
+                    // Deferred until the list has laid out the new rows
+                    SwingUtilities.invokeLater(() -> logList.ensureIndexIsVisible(logBuffer.getSize() - 1));
+                }
+            }
+            
+            @Override
+            public void intervalRemoved(javax.swing.event.ListDataEvent e) {
+            }
+            
+            @Override
+            public void contentsChanged(javax.swing.event.ListDataEvent e) {
+            }
+        });
         
         mainPanel.add(logScrollPane, BorderLayout.CENTER);
         
@@ -65,10 +139,23 @@ public class SteganographyApplication extends JFrame {
         JPanel welcomePanel = createWelcomePanel();
         mainPanel.add(welcomePanel, BorderLayout.NORTH);
         
+        // Background jobs from every dialog show up here
+        mainPanel.add(new JobQueuePanel(jobScheduler), BorderLayout.SOUTH);
+        
         add(mainPanel);
         
         log("Steganography System Initialized Successfully");
-        log("All modules loaded and ready for operation");
+        log("Modules are loaded on first use");
+        startMetricsDump();
+    }
+    
+    // Logged once the window's first layout and paint have been queued
+    private void logStartupTime(long mainStartNanos) {
+        SwingUtilities.invokeLater(() -> {
+            long sinceMain = (System.nanoTime() - mainStartNanos) / 1_000_000;
+            long sinceLaunch = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+            log("Started in " + sinceMain + " ms (" + sinceLaunch + " ms since JVM launch)");
+        });
     }
     
     private void createMenuBar() {
@@ -117,8 +204,13 @@ public class SteganographyApplication extends JFrame {
         decompressItem = new JMenuItem("Decompress File");
         decompressItem.addActionListener(e -> showDecompressionDialog());
         
+        trainDictionaryItem = new JMenuItem("Train Dictionary...");
+        trainDictionaryItem.addActionListener(e -> trainDictionary());
+        
         compressMenu.add(compressItem);
         compressMenu.add(decompressItem);
+        compressMenu.addSeparator();
+        compressMenu.add(trainDictionaryItem);
         
         // Steganography Menu
         embedMenu = new JMenu("Steganography");
@@ -140,7 +232,11 @@ public class SteganographyApplication extends JFrame {
         crcItem = new JMenuItem("Generate CRC");
         crcItem.addActionListener(e -> showCRCDialog());
         
+        metricsItem = new JMenuItem("Show Metrics");
+        metricsItem.addActionListener(e -> log("Stage metrics:\n" + Metrics.dump()));
+        
         toolsMenu.add(crcItem);
+        toolsMenu.add(metricsItem);
         
         menuBar.add(fileMenu);
         menuBar.add(encryptMenu);
@@ -163,52 +259,156 @@ public class SteganographyApplication extends JFrame {
         return panel;
     }
     
+    // Callable from any thread; lines reach the view in batches
     private void log(String message) {
-        logArea.append("[" + java.time.LocalTime.now().toString() + "] " + message + "\n");
-        logArea.setCaretPosition(logArea.getDocument().getLength());
+        logBuffer.append("[" + java.time.LocalTime.now().toString() + "] " + message);
     }
     
     // Menu Action Methods
     private void openFile() {
-        File file = inputModule.selectFile(this, "Open File");
+        File file = inputModule().selectFile(this, "Open File");
         if (file != null) {
             log("File opened: " + file.getName());
         }
     }
     
     private void saveFile() {
-        File file = inputModule.saveFile(this, "Save File");
+        File file = inputModule().saveFile(this, "Save File");
         if (file != null) {
             log("File saved: " + file.getName());
         }
     }
     
+    // -Dmetrics.dump.seconds=N appends the stage table to the log every N seconds
+    private void startMetricsDump() {
+        long interval = Long.getLong(METRICS_DUMP_PROPERTY, 0);
+        if (interval > 0) {
+            Metrics.startPeriodicDump(interval, dump -> log("Stage metrics:\n" + dump));
+            log("Metrics are dumped every " + interval + " s and exported over JMX under " + Metrics.JMX_DOMAIN);
+        }
+    }
+    
+    private void loadDictionaries() {
+        try {
+            int count = compressionModule.loadDictionaries(DICTIONARY_DIRECTORY);
+            if (count > 0) {
+                log("Loaded " + count + " compression dictionaries, active: " + compressionModule.getActiveDictionary());
+            }
+        } catch (IOException e) {
+            log("Could not load compression dictionaries: " + e.getMessage());
+        }
+    }
+    
+    private void trainDictionary() {
+        File directory = inputModule().selectDirectory(this, "Select Sample Corpus Directory");
+        if (directory == null) {
+            return;
+        }
+        // Resolved here, on the EDT, for the job to use
+        InputModule input = inputModule();
+        CompressionModule compression = compressionModule();
+        log("Training compression dictionary from " + directory.getAbsolutePath());
+        
+        jobScheduler.submit("Train dictionary from " + directory.getName(),
+            JobScheduler.Kind.CPU, JobScheduler.Priority.LOW, job -> {
+                job.audit("train-dictionary", directory, DICTIONARY_DIRECTORY);
+                java.util.List<byte[]> samples = new java.util.ArrayList<>();
+                long totalSize = 0;
+                File[] files = directory.listFiles(File::isFile);
+                if (files != null) {
+                    for (File file : files) {
+                        if (totalSize >= MAX_TRAINING_BYTES) {
+                            break;
+                        }
+                        JobScheduler.checkCancelled();
+                        byte[] sample = input.readFileToBytes(file);
+                        samples.add(sample);
+                        totalSize += sample.length;
+                        job.setProgress((int) Math.min(50, totalSize * 50 / MAX_TRAINING_BYTES));
+                    }
+                }
+                if (samples.isEmpty()) {
+                    throw new IllegalArgumentException("The selected directory contains no sample files");
+                }
+                CompressionModule.CompressionDictionary dictionary =
+                    new DictionaryTrainer().train(samples, CompressionModule.MAX_DICTIONARY_SIZE);
+                JobScheduler.checkCancelled();
+                compression.saveDictionary(dictionary, DICTIONARY_DIRECTORY);
+                compression.setActiveDictionary(dictionary);
+                job.setProgress(100);
+                return dictionary;
+            }, job -> {
+                try {
+                    log("Trained and activated " + job.get() + " in " + DICTIONARY_DIRECTORY);
+                } catch (java.util.concurrent.CancellationException e) {
+                    log("Dictionary training cancelled");
+                } catch (Exception e) {
+                    log("Dictionary training failed: " + e.getMessage());
+                }
+            });
+    }
+    
     private void showEncryptionDialog() {
-        new EncryptionDialog(this, encryptionModule).setVisible(true);
+        if (encryptionDialog == null) {
+            encryptionDialog = new EncryptionDialog(this, encryptionModule());
+        } else {
+            encryptionDialog.reset();
+        }
+        encryptionDialog.setVisible(true);
     }
     
     private void showDecryptionDialog() {
-        new DecryptionDialog(this, encryptionModule).setVisible(true);
+        if (decryptionDialog == null) {
+            decryptionDialog = new DecryptionDialog(this, encryptionModule());
+        } else {
+            decryptionDialog.reset();
+        }
+        decryptionDialog.setVisible(true);
     }
     
     private void showCompressionDialog() {
-        new CompressionDialog(this, compressionModule).setVisible(true);
+        if (compressionDialog == null) {
+            compressionDialog = new CompressionDialog(this, compressionModule(), jobScheduler);
+        } else {
+            compressionDialog.reset();
+        }
+        compressionDialog.setVisible(true);
     }
     
     private void showDecompressionDialog() {
-        new DecompressionDialog(this, compressionModule).setVisible(true);
+        if (decompressionDialog == null) {
+            decompressionDialog = new DecompressionDialog(this, compressionModule(), jobScheduler);
+        } else {
+            decompressionDialog.reset();
+        }
+        decompressionDialog.setVisible(true);
     }
     
     private void showEmbedDialog() {
-        new EmbedDialog(this, steganographyModule, inputModule).setVisible(true);
+        if (embedDialog == null) {
+            embedDialog = new EmbedDialog(this, steganographyModule(), compressionModule(), inputModule(), jobScheduler);
+        } else {
+            embedDialog.reset();
+        }
+        embedDialog.setVisible(true);
     }
     
     private void showExtractDialog() {
-        new ExtractDialog(this, steganographyModule, inputModule).setVisible(true);
+        if (extractDialog == null) {
+            extractDialog = new ExtractDialog(this, steganographyModule(), compressionModule(), inputModule(), jobScheduler);
+        } else {
+            extractDialog.reset();
+        }
+        extractDialog.setVisible(true);
     }
     
     private void showCRCDialog() {
-        new CRCDialog(this, crcModule, inputModule).setVisible(true);
+        if (crcDialog == null) {
+            crcDialog = new CRCDialog(this, crcModule(), inputModule(), jobScheduler);
+        } else {
+            crcDialog.reset();
+        }
+        crcDialog.setVisible(true);
     }
     
     public void logMessage(String message) {
@@ -216,19 +416,36 @@ public class SteganographyApplication extends JFrame {
     }
     
     public static void main(String[] args) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            // Headless: no frame, no look and feel
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchEngine.run(args, DICTIONARY_DIRECTORY));
+        }
+        long mainStartNanos = System.nanoTime();
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeel());
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            new SteganographyApplication().setVisible(true);
+            SteganographyApplication application = new SteganographyApplication();
+            application.setVisible(true);
+            application.logStartupTime(mainStartNanos);
         });
     }
 }
 
 // Input Module Class
 class InputModule {
+    public static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    // Largest piece handed to transferTo at once
+    public static final long MAP_REGION_SIZE = 1L << 30;
+    // mapFile maps one window of this size at a time, whatever the size of the file
+    public static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    // Each read-ahead and write-behind stream holds two buffers of this size
+    public static final int ASYNC_CHUNK_SIZE = 1024 * 1024;
+    // Largest array the JVM reliably allocates
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     
     public File selectFile(Component parent, String title) {
         JFileChooser fileChooser = new JFileChooser();
@@ -253,6 +470,18 @@ class InputModule {
         return null;
     }
     
+    public File selectDirectory(Component parent, String title) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(title);
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        
+        int result = fileChooser.showOpenDialog(parent);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            return fileChooser.getSelectedFile();
+        }
+        return null;
+    }
+    
     public File selectImageFile(Component parent, String title) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle(title);
@@ -289,21 +518,514 @@ class InputModule {
         return false;
     }
     
+    /**
+     * Reads a whole file into one array sized from the file, so the bytes are
+     * held once. Files too large for an array are refused: walk them with
+     * mapFile, or stream them with transfer or openReadAhead, instead.
+     */
     public byte[] readFileToBytes(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[1024];
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.FILE_READ);
+             java.nio.channels.FileChannel channel = openReadChannel(file)) {
+            long size = channel.size();
+            if (size > MAX_ARRAY_SIZE) {
+                throw new IOException(file.getName() + " is too large to read into memory (" + size + " bytes)");
+            }
+            byte[] data = new byte[(int) size];
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(data);
+            // Capped, since the JDK stages a heap read in a direct buffer as large as the request
+            while (buffer.position() < data.length) {
+                JobScheduler.checkCancelled();
+                buffer.limit(Math.min(data.length, buffer.position() + STREAM_CHUNK_SIZE));
+                if (channel.read(buffer) < 0) {
+                    // Truncated while we were reading
+                    data = java.util.Arrays.copyOf(data, buffer.position());
+                    break;
+                }
+            }
+            sample.done(data.length);
+            return data;
+        }
+    }
+    
+    public interface MappedWindowVisitor {
+        // position is the offset of the window's first byte within the file
+        void visit(java.nio.MappedByteBuffer window, long position) throws IOException;
+    }
+    
+    /**
+     * Walks a file of any size as read-only mapped windows of at most
+     * MAP_WINDOW_SIZE bytes, so its bytes reach the visitor without being
+     * copied onto the heap. Only one window is mapped at a time and the size
+     * is read again before each one, so a file that shrinks between windows
+     * just ends early. A file cut short under a live window, which the JVM
+     * reports as an InternalError, or one that cannot be mapped at all,
+     * throws MappingFailedException; callers can fall back to streaming.
+     * Returns the bytes visited.
+     */
+    public long mapFile(File file, MappedWindowVisitor visitor) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (java.nio.channels.FileChannel channel = openReadChannel(file)) {
+            long position = 0;
+            long size;
+            while (position < (size = channel.size())) {
+                JobScheduler.checkCancelled();
+                long length = Math.min(MAP_WINDOW_SIZE, size - position);
+                java.nio.MappedByteBuffer window;
+                try {
+                    window = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position, length);
+                } catch (IOException | UnsupportedOperationException e) {
+                    throw new MappingFailedException(file, e);
+                }
+                try {
+                    visitor.visit(window, position);
+                } catch (InternalError e) {
+                    throw new MappingFailedException(file, e);
+                }
+                position += length;
+            }
+            return position;
+        } finally {
+            fileStage.close();
+        }
+    }
+    
+    public static class MappingFailedException extends IOException {
+        MappingFailedException(File file, Throwable cause) {
+            super("Could not read " + file.getName() + " through a mapping: " + cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * Opens a file for sequential reading with read-ahead: while the caller
+     * works through one chunk, the next is already being read into a second
+     * buffer, so disk time overlaps with whatever the caller does with the data.
+     */
+    public InputStream openReadAhead(File file) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try {
+            return new ReadAheadInputStream(java.nio.channels.AsynchronousFileChannel.open(file.toPath(),
+                java.nio.file.StandardOpenOption.READ), fileStage);
+        } catch (IOException | RuntimeException e) {
+            fileStage.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Creates (or truncates) a file for sequential writing with write-behind:
+     * a full chunk is handed to the disk in the background while the caller
+     * fills the second buffer. A failed background write is reported by a
+     * later write, flush or close.
+     */
+    public OutputStream openWriteBehind(File file) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try {
+            return new WriteBehindOutputStream(java.nio.channels.AsynchronousFileChannel.open(file.toPath(),
+                java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE,
+                java.nio.file.StandardOpenOption.TRUNCATE_EXISTING), fileStage);
+        } catch (IOException | RuntimeException e) {
+            fileStage.close();
+            throw e;
+        }
+    }
+    
+    public java.nio.channels.FileChannel openReadChannel(File file) throws IOException {
+        return java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.READ);
+    }
+    
+    // Creates the file, or truncates an existing one
+    public java.nio.channels.FileChannel openWriteChannel(File file) throws IOException {
+        return java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.CREATE,
+            java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    /**
+     * Streams a file into out in STREAM_CHUNK_SIZE pieces without holding it in memory.
+     */
+    public long transfer(File file, OutputStream out) throws IOException {
+        return transfer(file, out, null);
+    }
+    
+    public long transfer(File file, OutputStream out, ProgressListener listener) throws IOException {
+        ProgressTracker tracker = new ProgressTracker(listener, file.length());
+        // Only the reads are timed, which with read-ahead is time spent waiting on the disk
+        try (Metrics.Accumulator reads = Metrics.accumulate(Metrics.Stage.FILE_READ);
+             BufferArena.Lease lease = BufferArena.get().leaseHeap(STREAM_CHUNK_SIZE);
+             InputStream fis = openReadAhead(file)) {
+            byte[] buffer = lease.array();
             int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
+            long readStart = System.nanoTime();
+            while ((bytesRead = fis.read(buffer, 0, STREAM_CHUNK_SIZE)) != -1) {
+                reads.add(System.nanoTime() - readStart, bytesRead);
+                JobScheduler.checkCancelled();
+                out.write(buffer, 0, bytesRead);
+                tracker.advance(bytesRead);
+                readStart = System.nanoTime();
+            }
+        }
+        tracker.finish();
+        return tracker.getBytesDone();
+    }
+    
+    /**
+     * Copies a whole file into a channel. The kernel moves the bytes where it
+     * can (sendfile, copy_file_range), so they never pass through the heap.
+     */
+    public long transfer(File file, java.nio.channels.WritableByteChannel target) throws IOException {
+        try (Metrics.Accumulator reads = Metrics.accumulate(Metrics.Stage.FILE_READ);
+             java.nio.channels.FileChannel channel = openReadChannel(file)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                JobScheduler.checkCancelled();
+                long start = System.nanoTime();
+                long count = channel.transferTo(position, Math.min(MAP_REGION_SIZE, size - position), target);
+                if (count <= 0) {
+                    break;
+                }
+                reads.add(System.nanoTime() - start, count);
+                position += count;
+            }
+            return position;
+        }
+    }
+    
+    /**
+     * Drains in into a channel in STREAM_CHUNK_SIZE pieces, so output reaches
+     * the file while the source is still being decoded.
+     */
+    public long transfer(InputStream in, java.nio.channels.WritableByteChannel channel) throws IOException {
+        long total = 0;
+        int bytesRead;
+        // Only the writes are timed; reading in drives the stages in front of it
+        try (Metrics.Accumulator writes = Metrics.accumulate(Metrics.Stage.FILE_WRITE);
+             BufferArena.Lease lease = BufferArena.get().leaseHeap(STREAM_CHUNK_SIZE)) {
+            byte[] buffer = lease.array();
+            java.nio.ByteBuffer chunk = lease.buffer();
+            while ((bytesRead = in.read(buffer, 0, STREAM_CHUNK_SIZE)) != -1) {
+                JobScheduler.checkCancelled();
+                long writeStart = System.nanoTime();
+                chunk.clear();
+                chunk.limit(bytesRead);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                writes.add(System.nanoTime() - writeStart, bytesRead);
+                total += bytesRead;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Drains in into a new file through a write-behind stream, so decoding the
+     * next chunk overlaps with writing the last one.
+     */
+    public long transfer(InputStream in, File file) throws IOException {
+        long total = 0;
+        int bytesRead;
+        // Only the writes are timed, which here is time spent waiting on the disk
+        try (Metrics.Accumulator writes = Metrics.accumulate(Metrics.Stage.FILE_WRITE);
+             BufferArena.Lease lease = BufferArena.get().leaseHeap(STREAM_CHUNK_SIZE);
+             OutputStream out = openWriteBehind(file)) {
+            byte[] buffer = lease.array();
+            while ((bytesRead = in.read(buffer, 0, STREAM_CHUNK_SIZE)) != -1) {
+                JobScheduler.checkCancelled();
+                long writeStart = System.nanoTime();
+                out.write(buffer, 0, bytesRead);
+                writes.add(System.nanoTime() - writeStart, bytesRead);
+                total += bytesRead;
             }
-            return baos.toByteArray();
         }
+        return total;
     }
     
     public void writeBytesToFile(byte[] data, File file) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(data);
+        writeBytesToFile(java.nio.ByteBuffer.wrap(data), file);
+    }
+    
+    /**
+     * Writes the buffer's remaining bytes, leaving its position untouched.
+     * Direct and mapped buffers are written without a heap copy.
+     */
+    public void writeBytesToFile(java.nio.ByteBuffer data, File file) throws IOException {
+        java.nio.ByteBuffer source = data.duplicate();
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.FILE_WRITE);
+             java.nio.channels.FileChannel channel = openWriteChannel(file)) {
+            int length = source.remaining();
+            if (source.isDirect()) {
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            } else {
+                // The JDK would copy a heap buffer into a temporary direct buffer
+                // as large as the whole write; stage it through one leased chunk
+                try (BufferArena.Lease lease = BufferArena.get().leaseDirect(STREAM_CHUNK_SIZE)) {
+                    java.nio.ByteBuffer chunk = lease.buffer();
+                    while (source.hasRemaining()) {
+                        int count = Math.min(STREAM_CHUNK_SIZE, source.remaining());
+                        java.nio.ByteBuffer slice = source.slice();
+                        slice.limit(count);
+                        chunk.clear();
+                        chunk.put(slice);
+                        chunk.flip();
+                        while (chunk.hasRemaining()) {
+                            channel.write(chunk);
+                        }
+                        source.position(source.position() + count);
+                    }
+                }
+            }
+            sample.done(length);
+        }
+    }
+    
+    // Waits for an asynchronous read or write, surfacing its failure as an IOException
+    static int await(java.util.concurrent.Future<Integer> operation) throws IOException {
+        StageLimits.Stage wait = StageLimits.ioWait();
+        try {
+            return operation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("File I/O interrupted");
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("File I/O failed", cause);
+        } finally {
+            wait.close();
+        }
+    }
+    
+    // A buffer may only go back to the arena once the disk is done with it
+    static void awaitQuietly(java.util.concurrent.Future<Integer> operation) {
+        boolean interrupted = false;
+        StageLimits.Stage wait = StageLimits.ioWait();
+        try {
+            while (true) {
+                try {
+                    operation.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (java.util.concurrent.ExecutionException e) {
+                    break;
+                }
+            }
+        } finally {
+            wait.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Double-buffered reader behind openReadAhead
+    static class ReadAheadInputStream extends InputStream {
+        private final java.nio.channels.AsynchronousFileChannel channel;
+        private final BufferArena.Lease[] leases = {
+            BufferArena.get().leaseDirect(ASYNC_CHUNK_SIZE), BufferArena.get().leaseDirect(ASYNC_CHUNK_SIZE)
+        };
+        private java.nio.ByteBuffer current;
+        private java.nio.ByteBuffer pendingBuffer;
+        private java.util.concurrent.Future<Integer> pending;
+        private final StageLimits.Stage fileStage;
+        private long position;
+        private boolean closed;
+        
+        ReadAheadInputStream(java.nio.channels.AsynchronousFileChannel channel, StageLimits.Stage fileStage) {
+            this.channel = channel;
+            this.fileStage = fileStage;
+            current = leases[0].buffer();
+            current.limit(0);
+            pendingBuffer = leases[1].buffer();
+            pending = channel.read(pendingBuffer, 0);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!current.hasRemaining() && !nextChunk()) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!current.hasRemaining() && !nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+        
+        // Counts the rest of the file, not just the current chunk: GZIPInputStream
+        // takes 0 here as "no further member" and would stop at a chunk boundary
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            long left = channel.size() - position + current.remaining();
+            return (int) Math.max(0, Math.min(left, Integer.MAX_VALUE));
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                if (pending != null) {
+                    awaitQuietly(pending);
+                }
+                current.limit(0);
+                leases[0].close();
+                leases[1].close();
+                fileStage.close();
+            }
+        }
+        
+        // Takes the chunk that was being read and starts reading the next into the spent buffer
+        private boolean nextChunk() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (pending == null) {
+                return false;
+            }
+            int count = await(pending);
+            if (count < 0) {
+                pending = null;
+                return false;
+            }
+            position += count;
+            java.nio.ByteBuffer filled = pendingBuffer;
+            filled.flip();
+            pendingBuffer = current;
+            pendingBuffer.clear();
+            pending = channel.read(pendingBuffer, position);
+            current = filled;
+            return true;
+        }
+    }
+    
+    // Double-buffered writer behind openWriteBehind
+    static class WriteBehindOutputStream extends OutputStream {
+        private final java.nio.channels.AsynchronousFileChannel channel;
+        private final BufferArena.Lease[] leases = {
+            BufferArena.get().leaseDirect(ASYNC_CHUNK_SIZE), BufferArena.get().leaseDirect(ASYNC_CHUNK_SIZE)
+        };
+        private java.nio.ByteBuffer current;
+        private java.nio.ByteBuffer pendingBuffer;
+        private java.util.concurrent.Future<Integer> pending;
+        private long pendingPosition;
+        private long position;
+        private boolean closed;
+        private final StageLimits.Stage fileStage;
+        
+        WriteBehindOutputStream(java.nio.channels.AsynchronousFileChannel channel, StageLimits.Stage fileStage) {
+            this.channel = channel;
+            this.fileStage = fileStage;
+            current = leases[0].buffer();
+            pendingBuffer = leases[1].buffer();
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            current.put((byte) b);
+            if (!current.hasRemaining()) {
+                submit();
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+                if (!current.hasRemaining()) {
+                    submit();
+                }
+            }
+        }
+        
+        // Hands everything written so far to the file and waits for it
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            if (current.position() > 0) {
+                submit();
+            }
+            completePending();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                closed = true;
+                try {
+                    channel.close();
+                } finally {
+                    if (pending != null) {
+                        awaitQuietly(pending);
+                    }
+                    leases[0].close();
+                    leases[1].close();
+                    fileStage.close();
+                }
+            }
+        }
+        
+        // Waits out the previous write, then starts writing the current buffer in its place
+        private void submit() throws IOException {
+            completePending();
+            java.nio.ByteBuffer full = current;
+            full.flip();
+            current = pendingBuffer;
+            current.clear();
+            pendingBuffer = full;
+            pendingPosition = position;
+            position += full.remaining();
+            pending = channel.write(full, pendingPosition);
+        }
+        
+        private void completePending() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            pendingPosition += await(pending);
+            // A short write leaves the rest of the buffer to finish here
+            while (pendingBuffer.hasRemaining()) {
+                pending = channel.write(pendingBuffer, pendingPosition);
+                pendingPosition += await(pending);
+            }
+            // Cleared only on success, so close() still waits for a write that was interrupted
+            pending = null;
+        }
+        
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
         }
     }
 }
@@ -332,6 +1054,104 @@ class EncryptionModule {
     }
     
     public byte[] encryptBytes(byte[] data, String key) {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.ENCRYPT)) {
+            byte[] encrypted = xorWithKey(data, key);
+            sample.done(data.length);
+            return encrypted;
+        }
+    }
+    
+    public byte[] decryptBytes(byte[] encryptedData, String key) {
+        // XOR decryption (XOR is its own inverse)
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.DECRYPT)) {
+            byte[] decrypted = xorWithKey(encryptedData, key);
+            sample.done(encryptedData.length);
+            return decrypted;
+        }
+    }
+    
+    /**
+     * Buffer form of encryptBytes for mapped or direct data: encrypts the
+     * remaining bytes of source into target, advancing both. position is the
+     * offset of source's first byte within the whole message, so a file read
+     * as several mapped windows encrypts exactly like one array.
+     */
+    public void encryptBytes(java.nio.ByteBuffer source, java.nio.ByteBuffer target, String key, long position) {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.ENCRYPT)) {
+            sample.done(xorWithKey(source, target, key, position));
+        }
+    }
+    
+    public void decryptBytes(java.nio.ByteBuffer source, java.nio.ByteBuffer target, String key, long position) {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.DECRYPT)) {
+            sample.done(xorWithKey(source, target, key, position));
+        }
+    }
+    
+    /**
+     * Encrypts a file of any size into target. The source is read through
+     * InputModule.mapFile and each chunk is encrypted into a direct buffer
+     * that goes straight to the output channel, so no byte of either file
+     * sits in a heap array. Returns the bytes written.
+     */
+    public long encryptFile(File source, File target, String key) throws IOException {
+        return transformFile(source, target, key, true);
+    }
+    
+    public long decryptFile(File source, File target, String key) throws IOException {
+        return transformFile(source, target, key, false);
+    }
+    
+    private long transformFile(File source, File target, String key, boolean encrypt) throws IOException {
+        InputModule inputModule = new InputModule();
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (java.nio.channels.FileChannel out = inputModule.openWriteChannel(target);
+             BufferArena.Lease lease = BufferArena.get().leaseDirect(InputModule.STREAM_CHUNK_SIZE)) {
+            java.nio.ByteBuffer chunk = lease.buffer();
+            return inputModule.mapFile(source, (window, position) -> {
+                while (window.hasRemaining()) {
+                    JobScheduler.checkCancelled();
+                    long offset = position + window.position();
+                    java.nio.ByteBuffer piece = window.slice();
+                    piece.limit(Math.min(piece.remaining(), InputModule.STREAM_CHUNK_SIZE));
+                    window.position(window.position() + piece.remaining());
+                    chunk.clear();
+                    if (encrypt) {
+                        encryptBytes(piece, chunk, key, offset);
+                    } else {
+                        decryptBytes(piece, chunk, key, offset);
+                    }
+                    chunk.flip();
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                }
+            });
+        } finally {
+            fileStage.close();
+        }
+    }
+    
+    private int xorWithKey(java.nio.ByteBuffer source, java.nio.ByteBuffer target, String key, long position) {
+        byte[] keyBytes = key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        if (keyBytes.length == 0) {
+            throw new IllegalArgumentException("Encryption key must not be empty");
+        }
+        int length = source.remaining();
+        if (target.remaining() < length) {
+            throw new java.nio.BufferOverflowException();
+        }
+        int keyIndex = (int) (position % keyBytes.length);
+        for (int i = 0; i < length; i++) {
+            target.put((byte) (source.get() ^ keyBytes[keyIndex]));
+            if (++keyIndex == keyBytes.length) {
+                keyIndex = 0;
+            }
+        }
+        return length;
+    }
+    
+    private byte[] xorWithKey(byte[] data, String key) {
         try {
             // XOR encryption with key
             byte[] keyBytes = key.getBytes("UTF-8");
@@ -347,14 +1167,116 @@ class EncryptionModule {
         }
     }
     
-    public byte[] decryptBytes(byte[] encryptedData, String key) {
-        // XOR decryption (XOR is its own inverse)
-        return encryptBytes(encryptedData, key);
+    /**
+     * Streaming form of encryptBytes: produces the same bytes as encrypting
+     * everything written to it in one call.
+     */
+    public OutputStream encryptingStream(OutputStream out, String key) throws IOException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        if (keyBytes.length == 0) {
+            throw new IllegalArgumentException("Encryption key must not be empty");
+        }
+        return new FilterOutputStream(out) {
+            private final BufferArena.Lease lease = BufferArena.get().leaseHeap(InputModule.STREAM_CHUNK_SIZE);
+            private final Metrics.Accumulator timing = Metrics.accumulate(Metrics.Stage.ENCRYPT);
+            private long position;
+            
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b ^ keyBytes[(int) (position++ % keyBytes.length)]);
+                timing.add(0, 1);
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // Fails once closed, before the returned buffer could be touched
+                byte[] scratch = lease.array();
+                while (len > 0) {
+                    long start = System.nanoTime();
+                    int count = Math.min(len, InputModule.STREAM_CHUNK_SIZE);
+                    for (int i = 0; i < count; i++) {
+                        scratch[i] = (byte) (b[off + i] ^ keyBytes[(int) (position++ % keyBytes.length)]);
+                    }
+                    timing.add(System.nanoTime() - start, count);
+                    out.write(scratch, 0, count);
+                    off += count;
+                    len -= count;
+                }
+            }
+            
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    timing.close();
+                    lease.close();
+                }
+            }
+        };
     }
     
-    private String mixWithKey(String text, String key) {
-        StringBuilder mixed = new StringBuilder();
-        for (int i = 0; i < text.length(); i++) {
+    /**
+     * Streaming form of decryptBytes, the read-side twin of encryptingStream.
+     */
+    public InputStream decryptingStream(InputStream in, String key) throws IOException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        if (keyBytes.length == 0) {
+            throw new IllegalArgumentException("Decryption key must not be empty");
+        }
+        return new FilterInputStream(in) {
+            private final Metrics.Accumulator timing = Metrics.accumulate(Metrics.Stage.DECRYPT);
+            private long position;
+            
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b < 0) {
+                    return b;
+                }
+                timing.add(0, 1);
+                return (b ^ keyBytes[(int) (position++ % keyBytes.length)]) & 0xFF;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = in.read(b, off, len);
+                long start = System.nanoTime();
+                for (int i = off; i < off + count; i++) {
+                    b[i] ^= keyBytes[(int) (position++ % keyBytes.length)];
+                }
+                if (count > 0) {
+                    timing.add(System.nanoTime() - start, count);
+                }
+                return count;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    timing.close();
+                }
+            }
+            
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = in.skip(n);
+                position += skipped;
+                return skipped;
+            }
+            
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+    
+    private String mixWithKey(String text, String key) {
+        StringBuilder mixed = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
             char textChar = text.charAt(i);
             char keyChar = key.charAt(i % key.length());
             mixed.append((char) (textChar + keyChar));
@@ -373,291 +1295,6796 @@ class EncryptionModule {
     }
 }
 
-// CRC Module Class
-class CRCModule {
-    private CRC32 crc32;
+// Progress Listener Interface
+interface ProgressListener {
+    void progressChanged(ProgressTracker.ProgressEvent event);
+}
+
+// Progress Tracker Class
+// Counts bytes consumed from a job's source and passes progress on at most
+// every EMIT_INTERVAL_NANOS (about 20 Hz), however small the read buffers
+// are. A tracker belongs to the one thread running the loop it measures.
+class ProgressTracker {
+    public static final long EMIT_INTERVAL_NANOS = 50_000_000L;
     
-    public CRCModule() {
-        crc32 = new CRC32();
+    private final ProgressListener listener;
+    private final long totalBytes;
+    private final long startNanos = System.nanoTime();
+    private long bytesDone;
+    private long lastEmitNanos;
+    private boolean finished;
+    
+    public ProgressTracker(ProgressListener listener, long totalBytes) {
+        this.listener = listener;
+        this.totalBytes = totalBytes;
+    }
+    
+    public void advance(long bytes) {
+        bytesDone += bytes;
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastEmitNanos == 0 || now - lastEmitNanos >= EMIT_INTERVAL_NANOS) {
+            lastEmitNanos = now;
+            listener.progressChanged(snapshot(now, false));
+        }
+    }
+    
+    // Always delivered, however soon after the last update
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (listener != null) {
+            listener.progressChanged(snapshot(System.nanoTime(), true));
+        }
+    }
+    
+    public long getBytesDone() {
+        return bytesDone;
+    }
+    
+    /**
+     * Wraps a source so every byte read from it counts as progress. Used
+     * where the loop only sees decoded output, e.g. behind an inflater.
+     */
+    public InputStream track(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    advance(1);
+                }
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int bytesRead = in.read(b, off, len);
+                if (bytesRead > 0) {
+                    advance(bytesRead);
+                }
+                return bytesRead;
+            }
+            
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = in.skip(n);
+                advance(skipped);
+                return skipped;
+            }
+        };
+    }
+    
+    private ProgressEvent snapshot(long now, boolean done) {
+        double seconds = (now - startNanos) / 1e9;
+        double rate = seconds > 0 ? bytesDone / seconds : 0;
+        int percent;
+        if (done) {
+            percent = 100;
+        } else if (totalBytes > 0) {
+            // Held at 99 until finish() so the bar never reads 100 early
+            percent = (int) Math.min(99, bytesDone * 100 / totalBytes);
+        } else {
+            percent = 0;
+        }
+        long eta = done ? 0 : rate > 0 && totalBytes > 0 ? (long) (Math.max(0, totalBytes - bytesDone) / rate * 1000) : -1;
+        return new ProgressEvent(bytesDone, totalBytes, percent, rate, eta, done);
+    }
+    
+    public static class ProgressEvent {
+        public final long bytesDone;
+        public final long totalBytes;
+        public final int percent;
+        public final double bytesPerSecond;
+        public final long etaMillis;
+        public final boolean finished;
+        
+        public ProgressEvent(long bytesDone, long totalBytes, int percent, double bytesPerSecond, long etaMillis, boolean finished) {
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.percent = percent;
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaMillis = etaMillis;
+            this.finished = finished;
+        }
+        
+        // For work that only knows a percentage, such as dictionary training
+        public static ProgressEvent ofPercent(int percent) {
+            return new ProgressEvent(0, 0, percent, 0, -1, percent >= 100);
+        }
+        
+        @Override
+        public String toString() {
+            if (bytesPerSecond <= 0) {
+                return percent + "%";
+            }
+            if (finished) {
+                return String.format("%d%%, %s/s", percent, formatBytes(bytesPerSecond));
+            }
+            String eta = etaMillis < 0 ? "?" : String.format("%d:%02d", etaMillis / 60000, etaMillis / 1000 % 60);
+            return String.format("%d%%, %s/s, ETA %s", percent, formatBytes(bytesPerSecond), eta);
+        }
+        
+        static String formatBytes(double bytes) {
+            if (bytes >= 1024 * 1024 * 1024) {
+                return String.format("%.1f GB", bytes / (1024 * 1024 * 1024));
+            }
+            if (bytes >= 1024 * 1024) {
+                return String.format("%.1f MB", bytes / (1024 * 1024));
+            }
+            if (bytes >= 1024) {
+                return String.format("%.1f KB", bytes / 1024);
+            }
+            return String.format("%.0f B", bytes);
+        }
+    }
+}
+
+// Buffer Arena Class
+// Process-wide pool of working buffers in power-of-two size classes. A
+// caller leases a buffer, works in it and closes the lease, which hands the
+// buffer to the next caller; steady work therefore reuses a few buffers
+// instead of allocating one per chunk, block or frame. Direct buffers serve
+// channel I/O, heap buffers the byte[] APIs (streams, Deflater, LZ4). Idle
+// buffers are capped per kind at -Dbuffers.idle.mb (64 by default); a
+// returned buffer over the cap is left to the collector.
+class BufferArena {
+    static final String IDLE_LIMIT_PROPERTY = "buffers.idle.mb";
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 24;
+    private static final BufferArena SHARED = new BufferArena(Long.getLong(IDLE_LIMIT_PROPERTY, 64) * 1024 * 1024);
+    
+    private final Pool heap;
+    private final Pool direct;
+    
+    BufferArena(long maxIdleBytes) {
+        heap = new Pool(false, maxIdleBytes);
+        direct = new Pool(true, maxIdleBytes);
+    }
+    
+    static BufferArena get() {
+        return SHARED;
+    }
+    
+    // Backed by an array of at least capacity bytes
+    public Lease leaseHeap(int capacity) {
+        return heap.lease(capacity);
+    }
+    
+    public Lease leaseDirect(int capacity) {
+        return direct.lease(capacity);
+    }
+    
+    @Override
+    public String toString() {
+        return "heap " + heap + "; direct " + direct;
+    }
+    
+    // Smallest class holding capacity bytes, as a power of two
+    private static int sizeClass(int capacity) {
+        return Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+    }
+    
+    /**
+     * A buffer on loan. buffer() is cleared with its limit at the capacity
+     * asked for, though the storage behind it may be larger. A lease belongs
+     * to one thread at a time and must not be used after close().
+     */
+    static final class Lease implements AutoCloseable {
+        private final Pool pool;
+        private final int sizeClass;
+        private java.nio.ByteBuffer buffer;
+        
+        private Lease(Pool pool, int sizeClass, java.nio.ByteBuffer buffer, int capacity) {
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+            buffer.clear();
+            buffer.limit(capacity);
+        }
+        
+        public java.nio.ByteBuffer buffer() {
+            if (buffer == null) {
+                throw new IllegalStateException("Buffer lease already returned");
+            }
+            return buffer;
+        }
+        
+        public byte[] array() {
+            return buffer().array();
+        }
+        
+        @Override
+        public void close() {
+            if (buffer != null) {
+                pool.release(buffer, sizeClass);
+                buffer = null;
+            }
+        }
+    }
+    
+    private static final class Pool {
+        private final boolean direct;
+        private final long maxIdleBytes;
+        private final java.util.List<java.util.concurrent.ConcurrentLinkedQueue<java.nio.ByteBuffer>> free = new java.util.ArrayList<>();
+        private final java.util.concurrent.atomic.AtomicLong idleBytes = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.LongAdder leases = new java.util.concurrent.atomic.LongAdder();
+        private final java.util.concurrent.atomic.LongAdder allocations = new java.util.concurrent.atomic.LongAdder();
+        
+        Pool(boolean direct, long maxIdleBytes) {
+            this.direct = direct;
+            this.maxIdleBytes = maxIdleBytes;
+            for (int shift = MIN_CLASS_SHIFT; shift <= MAX_CLASS_SHIFT; shift++) {
+                free.add(new java.util.concurrent.ConcurrentLinkedQueue<>());
+            }
+        }
+        
+        Lease lease(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("Negative buffer capacity: " + capacity);
+            }
+            leases.increment();
+            int shift = sizeClass(capacity);
+            if (shift > MAX_CLASS_SHIFT) {
+                // Too large to keep around; allocated to size and never pooled
+                allocations.increment();
+                return new Lease(this, -1, allocate(capacity), capacity);
+            }
+            java.nio.ByteBuffer buffer = free.get(shift - MIN_CLASS_SHIFT).poll();
+            if (buffer == null) {
+                allocations.increment();
+                buffer = allocate(1 << shift);
+            } else {
+                idleBytes.addAndGet(-buffer.capacity());
+            }
+            return new Lease(this, shift, buffer, capacity);
+        }
+        
+        void release(java.nio.ByteBuffer buffer, int shift) {
+            if (shift < 0) {
+                return;
+            }
+            if (idleBytes.addAndGet(buffer.capacity()) > maxIdleBytes) {
+                idleBytes.addAndGet(-buffer.capacity());
+                return;
+            }
+            free.get(shift - MIN_CLASS_SHIFT).offer(buffer);
+        }
+        
+        private java.nio.ByteBuffer allocate(int capacity) {
+            return direct ? java.nio.ByteBuffer.allocateDirect(capacity) : java.nio.ByteBuffer.allocate(capacity);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("leases=%d allocations=%d idle=%s", leases.sum(), allocations.sum(),
+                ProgressTracker.ProgressEvent.formatBytes(idleBytes.get()));
+        }
+    }
+}
+
+// Metrics Class
+// Process-wide counters and latency histograms for each pipeline stage.
+// Every stage is published as a JMX MBean named
+// "steganography:type=Stage,name=<stage>", and dump() renders the same
+// numbers as a text table for logs.
+class Metrics {
+    public static final String JMX_DOMAIN = "steganography";
+    
+    public enum Stage {
+        FILE_READ("file-read"),
+        FILE_WRITE("file-write"),
+        IMAGE_DECODE("image-decode"),
+        EMBED("embed"),
+        EXTRACT("extract"),
+        IMAGE_ENCODE("image-encode"),
+        COMPRESS("compress"),
+        DECOMPRESS("decompress"),
+        ENCRYPT("encrypt"),
+        DECRYPT("decrypt"),
+        CHECKSUM("checksum");
+        
+        public final String label;
+        
+        Stage(String label) {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    private static final StageMetrics[] STAGES = new StageMetrics[Stage.values().length];
+    private static java.util.concurrent.ScheduledExecutorService dumpScheduler;
+    
+    static {
+        for (Stage stage : Stage.values()) {
+            STAGES[stage.ordinal()] = new StageMetrics(stage);
+        }
+        registerMBeans();
+    }
+    
+    private Metrics() {
+    }
+    
+    public static StageMetrics get(Stage stage) {
+        return STAGES[stage.ordinal()];
+    }
+    
+    /**
+     * Times one operation. Call done() with the bytes handled once it has
+     * succeeded; closing a sample that was never marked done counts an error.
+     */
+    public static Sample start(Stage stage) {
+        return new Sample(get(stage));
+    }
+    
+    /**
+     * For streams whose work is spread over many read or write calls: only
+     * the time passed to add() is counted, so time spent in the stages a
+     * stream feeds is not charged to it. Recorded as one operation on close.
+     */
+    public static Accumulator accumulate(Stage stage) {
+        return new Accumulator(get(stage));
+    }
+    
+    /**
+     * Charges stage for the time spent inside encoder's writes, less the time
+     * its output spends in sink, the next stage down. encoder must have been
+     * built on top of sink.
+     */
+    public static OutputStream meter(Stage stage, OutputStream encoder, SinkTimer sink) {
+        Accumulator timing = accumulate(stage);
+        return new FilterOutputStream(encoder) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = System.nanoTime();
+                long inSink = sink.nanos;
+                out.write(b);
+                timing.add(System.nanoTime() - start - (sink.nanos - inSink), 1);
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                long inSink = sink.nanos;
+                out.write(b, off, len);
+                timing.add(System.nanoTime() - start - (sink.nanos - inSink), len);
+            }
+            
+            @Override
+            public void close() throws IOException {
+                long start = System.nanoTime();
+                long inSink = sink.nanos;
+                try {
+                    out.close();
+                } finally {
+                    timing.add(System.nanoTime() - start - (sink.nanos - inSink), 0);
+                    timing.close();
+                }
+            }
+        };
+    }
+    
+    // Read-side twin of meter(): decoder must read from source
+    public static InputStream meter(Stage stage, InputStream decoder, SourceTimer source) {
+        Accumulator timing = accumulate(stage);
+        return new FilterInputStream(decoder) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                long inSource = source.nanos;
+                int b = in.read();
+                timing.add(System.nanoTime() - start - (source.nanos - inSource), b < 0 ? 0 : 1);
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                long inSource = source.nanos;
+                int count = in.read(b, off, len);
+                timing.add(System.nanoTime() - start - (source.nanos - inSource), Math.max(0, count));
+                return count;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    timing.close();
+                }
+            }
+        };
+    }
+    
+    public static class SinkTimer extends FilterOutputStream {
+        long nanos;
+        
+        public SinkTimer(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.close();
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+    
+    public static class SourceTimer extends FilterInputStream {
+        long nanos;
+        
+        public SourceTimer(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = in.read();
+            nanos += System.nanoTime() - start;
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int count = in.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long start = System.nanoTime();
+            long skipped = in.skip(n);
+            nanos += System.nanoTime() - start;
+            return skipped;
+        }
+    }
+    
+    public static void reset() {
+        for (StageMetrics stage : STAGES) {
+            stage.reset();
+        }
+    }
+    
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-13s %8s %6s %8s %10s %9s %9s %9s %9s %9s %9s%n",
+            "stage", "count", "errors", "inflight", "bytes", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms", "MB/s"));
+        for (StageMetrics stage : STAGES) {
+            if (stage.getCount() == 0 && stage.getInFlight() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-13s %8d %6d %8d %10s %9.2f %9.2f %9.2f %9.2f %9.2f %9.1f%n",
+                stage.stage, stage.getCount(), stage.getErrors(), stage.getInFlight(),
+                ProgressTracker.ProgressEvent.formatBytes(stage.getBytes()),
+                stage.getMeanMillis(), stage.percentileMillis(0.50), stage.percentileMillis(0.95),
+                stage.percentileMillis(0.99), stage.getMaxMillis(), stage.getBytesPerSecond() / (1024 * 1024)));
+        }
+        sb.append(String.format("buffers: %s%n", BufferArena.get()));
+        return sb.toString();
+    }
+    
+    /**
+     * Hands dump() to the sink every intervalSeconds on a daemon thread until
+     * the returned future is cancelled.
+     */
+    public static synchronized java.util.concurrent.ScheduledFuture<?> startPeriodicDump(long intervalSeconds,
+            java.util.function.Consumer<String> sink) {
+        if (dumpScheduler == null) {
+            dumpScheduler = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return dumpScheduler.scheduleAtFixedRate(() -> sink.accept(dump()),
+            intervalSeconds, intervalSeconds, java.util.concurrent.TimeUnit.SECONDS);
+    }
+    
+    private static void registerMBeans() {
+        try {
+            javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            for (StageMetrics stage : STAGES) {
+                javax.management.ObjectName name = new javax.management.ObjectName(
+                    JMX_DOMAIN + ":type=Stage,name=" + stage.stage.label);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(stage, name);
+                }
+            }
+        } catch (javax.management.JMException | SecurityException e) {
+            // Metrics still work without JMX, they just are not exported
+            System.err.println("Could not register metrics MBeans: " + e.getMessage());
+        }
+    }
+    
+    public static class Sample implements AutoCloseable {
+        private final StageMetrics stage;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+        private boolean succeeded;
+        private boolean closed;
+        
+        Sample(StageMetrics stage) {
+            this.stage = stage;
+            stage.inFlight.incrementAndGet();
+        }
+        
+        public void done(long bytes) {
+            this.bytes = bytes;
+            this.succeeded = true;
+        }
+        
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                stage.inFlight.decrementAndGet();
+                stage.record(System.nanoTime() - startNanos, bytes, succeeded);
+            }
+        }
+    }
+    
+    public static class Accumulator implements AutoCloseable {
+        private final StageMetrics stage;
+        private long nanos;
+        private long bytes;
+        private boolean closed;
+        
+        Accumulator(StageMetrics stage) {
+            this.stage = stage;
+            stage.inFlight.incrementAndGet();
+        }
+        
+        public void add(long nanos, long bytes) {
+            this.nanos += nanos;
+            this.bytes += bytes;
+        }
+        
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                stage.inFlight.decrementAndGet();
+                stage.record(nanos, bytes, true);
+            }
+        }
+    }
+    
+    /**
+     * Latencies go into power-of-two microsecond buckets, so percentiles are
+     * upper bounds accurate to a factor of two. That is plenty to spot a
+     * regression and costs one atomic add per operation.
+     */
+    public static class StageMetrics implements javax.management.DynamicMBean {
+        private static final int BUCKETS = 40;
+        private static final String[] ATTRIBUTES = {
+            "Count", "Errors", "InFlight", "Bytes", "MeanMillis", "P50Millis", "P95Millis", "P99Millis", "MaxMillis", "BytesPerSecond"
+        };
+        
+        public final Stage stage;
+        private final java.util.concurrent.atomic.LongAdder count = new java.util.concurrent.atomic.LongAdder();
+        private final java.util.concurrent.atomic.LongAdder errors = new java.util.concurrent.atomic.LongAdder();
+        private final java.util.concurrent.atomic.LongAdder bytes = new java.util.concurrent.atomic.LongAdder();
+        private final java.util.concurrent.atomic.LongAdder totalNanos = new java.util.concurrent.atomic.LongAdder();
+        private final java.util.concurrent.atomic.AtomicLong maxNanos = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicInteger inFlight = new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.atomic.AtomicLongArray histogram = new java.util.concurrent.atomic.AtomicLongArray(BUCKETS);
+        
+        StageMetrics(Stage stage) {
+            this.stage = stage;
+        }
+        
+        void record(long nanos, long byteCount, boolean succeeded) {
+            count.increment();
+            if (!succeeded) {
+                errors.increment();
+            }
+            bytes.add(byteCount);
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry until the larger value sticks
+            }
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+        
+        public void reset() {
+            count.reset();
+            errors.reset();
+            bytes.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+        }
+        
+        public long getCount() {
+            return count.sum();
+        }
+        
+        public long getErrors() {
+            return errors.sum();
+        }
+        
+        public int getInFlight() {
+            return inFlight.get();
+        }
+        
+        public long getBytes() {
+            return bytes.sum();
+        }
+        
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+        
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+        
+        // Throughput while the stage was actually working, not wall-clock
+        public double getBytesPerSecond() {
+            long nanos = totalNanos.sum();
+            return nanos == 0 ? 0 : bytes.sum() * 1e9 / nanos;
+        }
+        
+        public double percentileMillis(double fraction) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min((1L << i) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+        
+        @Override
+        public Object getAttribute(String attribute) throws javax.management.AttributeNotFoundException {
+            switch (attribute) {
+                case "Count":
+                    return getCount();
+                case "Errors":
+                    return getErrors();
+                case "InFlight":
+                    return getInFlight();
+                case "Bytes":
+                    return getBytes();
+                case "MeanMillis":
+                    return getMeanMillis();
+                case "P50Millis":
+                    return percentileMillis(0.50);
+                case "P95Millis":
+                    return percentileMillis(0.95);
+                case "P99Millis":
+                    return percentileMillis(0.99);
+                case "MaxMillis":
+                    return getMaxMillis();
+                case "BytesPerSecond":
+                    return getBytesPerSecond();
+                default:
+                    throw new javax.management.AttributeNotFoundException(attribute);
+            }
+        }
+        
+        @Override
+        public javax.management.AttributeList getAttributes(String[] attributes) {
+            javax.management.AttributeList list = new javax.management.AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new javax.management.Attribute(attribute, getAttribute(attribute)));
+                } catch (javax.management.AttributeNotFoundException e) {
+                    // Unknown names are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+        
+        @Override
+        public void setAttribute(javax.management.Attribute attribute) throws javax.management.AttributeNotFoundException {
+            throw new javax.management.AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+        
+        @Override
+        public javax.management.AttributeList setAttributes(javax.management.AttributeList attributes) {
+            return new javax.management.AttributeList();
+        }
+        
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws javax.management.ReflectionException {
+            if ("reset".equals(actionName)) {
+                reset();
+                return null;
+            }
+            throw new javax.management.ReflectionException(new NoSuchMethodException(actionName));
+        }
+        
+        @Override
+        public javax.management.MBeanInfo getMBeanInfo() {
+            javax.management.MBeanAttributeInfo[] attributes = new javax.management.MBeanAttributeInfo[ATTRIBUTES.length];
+            for (int i = 0; i < ATTRIBUTES.length; i++) {
+                String type;
+                switch (ATTRIBUTES[i]) {
+                    case "Count":
+                    case "Errors":
+                    case "Bytes":
+                        type = "long";
+                        break;
+                    case "InFlight":
+                        type = "int";
+                        break;
+                    default:
+                        type = "double";
+                }
+                attributes[i] = new javax.management.MBeanAttributeInfo(ATTRIBUTES[i], type, ATTRIBUTES[i], true, false, false);
+            }
+            javax.management.MBeanOperationInfo[] operations = {
+                new javax.management.MBeanOperationInfo("reset", "Clears counters and the histogram",
+                    new javax.management.MBeanParameterInfo[0], "void", javax.management.MBeanOperationInfo.ACTION)
+            };
+            return new javax.management.MBeanInfo(getClass().getName(), "Metrics for the " + stage.label + " stage",
+                attributes, null, operations, null);
+        }
+    }
+}
+
+// CRC Module Class
+class CRCModule {
+    private CRC32 crc32;
+    
+    public CRCModule() {
+        crc32 = new CRC32();
+    }
+    
+    public long generateCRC(String data) {
+        crc32.reset();
+        crc32.update(data.getBytes());
+        return crc32.getValue();
+    }
+    
+    public long generateCRC(byte[] data) {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.CHECKSUM)) {
+            crc32.reset();
+            crc32.update(data);
+            sample.done(data.length);
+            return crc32.getValue();
+        }
+    }
+    
+    // Checksums the buffer's remaining bytes without moving its position
+    public long generateCRC(java.nio.ByteBuffer data) {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.CHECKSUM)) {
+            crc32.reset();
+            crc32.update(data.duplicate());
+            sample.done(data.remaining());
+            return crc32.getValue();
+        }
+    }
+    
+    public long generateCRC(File file) throws IOException {
+        return generateCRC(file, null);
+    }
+    
+    /**
+     * Checksums the file through mapped windows (InputModule.mapFile), so no
+     * byte of it is copied onto the heap; works for files of any size. If
+     * the file cannot be mapped, or is cut short under a mapping, it is
+     * checksummed again by streaming, which just ends early on truncation.
+     */
+    public long generateCRC(File file, ProgressListener listener) throws IOException {
+        try {
+            return generateMappedCRC(file, listener);
+        } catch (InputModule.MappingFailedException e) {
+            return generateStreamedCRC(file, listener);
+        }
+    }
+    
+    private long generateMappedCRC(File file, ProgressListener listener) throws IOException {
+        crc32.reset();
+        ProgressTracker tracker = new ProgressTracker(listener, file.length());
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.CHECKSUM)) {
+            new InputModule().mapFile(file, (window, position) -> {
+                while (window.hasRemaining()) {
+                    JobScheduler.checkCancelled();
+                    java.nio.ByteBuffer piece = window.slice();
+                    piece.limit(Math.min(piece.remaining(), InputModule.ASYNC_CHUNK_SIZE));
+                    window.position(window.position() + piece.remaining());
+                    int count = piece.remaining();
+                    crc32.update(piece);
+                    tracker.advance(count);
+                }
+            });
+            sample.done(tracker.getBytesDone());
+        }
+        tracker.finish();
+        return crc32.getValue();
+    }
+    
+    // Read-ahead overlaps reading the next chunk with checksumming this one
+    private long generateStreamedCRC(File file, ProgressListener listener) throws IOException {
+        crc32.reset();
+        ProgressTracker tracker = new ProgressTracker(listener, file.length());
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.CHECKSUM);
+             BufferArena.Lease lease = BufferArena.get().leaseHeap(InputModule.STREAM_CHUNK_SIZE);
+             InputStream in = new InputModule().openReadAhead(file)) {
+            byte[] buffer = lease.array();
+            int bytesRead;
+            while ((bytesRead = in.read(buffer, 0, InputModule.STREAM_CHUNK_SIZE)) != -1) {
+                JobScheduler.checkCancelled();
+                crc32.update(buffer, 0, bytesRead);
+                tracker.advance(bytesRead);
+            }
+            sample.done(tracker.getBytesDone());
+        }
+        tracker.finish();
+        return crc32.getValue();
+    }
+    
+    public boolean verifyCRC(String data, long expectedCRC) {
+        return generateCRC(data) == expectedCRC;
+    }
+    
+    public boolean verifyCRC(byte[] data, long expectedCRC) {
+        return generateCRC(data) == expectedCRC;
+    }
+    
+    public boolean verifyCRC(File file, long expectedCRC) throws IOException {
+        return generateCRC(file) == expectedCRC;
+    }
+}
+
+// Integrity Scanner Class
+class IntegrityScanner {
+    public static final String INDEX_FILE_NAME = ".integrity.idx";
+    private static final String INDEX_TEMP_NAME = INDEX_FILE_NAME + ".tmp";
+    private static final int INDEX_MAGIC = 0x43524349; // "CRCI"
+    private static final int INDEX_VERSION = 1;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    
+    private final int threadCount;
+    
+    public IntegrityScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    public IntegrityScanner(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+    
+    /**
+     * Scans a directory tree against its stored index and rewrites the index.
+     * Only new files and files whose size or mtime changed are re-hashed,
+     * unless verifyAll is set, in which case every file is re-hashed and
+     * content changes behind unchanged metadata are reported as corrupted.
+     */
+    public ScanReport scan(File rootDir, boolean verifyAll) throws IOException {
+        long startTime = System.currentTimeMillis();
+        File indexFile = new File(rootDir, INDEX_FILE_NAME);
+        java.util.Map<String, IndexEntry> previous = loadIndex(indexFile);
+        Walk walk = walk(rootDir.toPath());
+        java.util.List<IndexEntry> current = walk.entries;
+        JobScheduler.checkCancelled();
+        
+        ScanReport report = new ScanReport(rootDir.getAbsolutePath(), verifyAll);
+        java.util.Map<String, IndexEntry> updated = new java.util.TreeMap<>();
+        java.util.List<IndexEntry> toHash = new java.util.ArrayList<>();
+        
+        for (IndexEntry entry : current) {
+            IndexEntry old = previous.get(entry.path);
+            if (old == null || old.size != entry.size || old.lastModified != entry.lastModified || verifyAll) {
+                toHash.add(entry);
+            } else {
+                updated.put(entry.path, old);
+            }
+        }
+        
+        hashAll(rootDir.toPath(), toHash, report);
+        
+        for (IndexEntry entry : toHash) {
+            if (entry.crc < 0) {
+                // Unreadable this time round, keep whatever we knew before
+                IndexEntry old = previous.get(entry.path);
+                if (old != null) {
+                    updated.put(entry.path, old);
+                }
+                continue;
+            }
+            IndexEntry old = previous.get(entry.path);
+            if (old == null) {
+                report.added.add(entry.path);
+                updated.put(entry.path, entry);
+            } else if (old.size != entry.size || old.lastModified != entry.lastModified) {
+                if (old.crc != entry.crc) {
+                    report.modified.add(entry.path);
+                }
+                updated.put(entry.path, entry);
+            } else if (old.crc != entry.crc) {
+                // Same size and mtime but different content: keep the trusted checksum
+                report.corrupted.add(entry.path);
+                updated.put(entry.path, old);
+            } else {
+                updated.put(entry.path, old);
+            }
+        }
+        
+        // Whatever could not be listed or stat'ed keeps what the index knew about it
+        for (String failed : walk.failed) {
+            report.errors.add(failed);
+            String prefix = failed + "/";
+            for (IndexEntry old : previous.values()) {
+                if (old.path.equals(failed) || old.path.startsWith(prefix)) {
+                    updated.putIfAbsent(old.path, old);
+                }
+            }
+        }
+        
+        for (String path : previous.keySet()) {
+            if (!updated.containsKey(path)) {
+                report.removed.add(path);
+            }
+        }
+        
+        saveIndex(indexFile, updated.values());
+        
+        report.filesScanned = current.size();
+        report.filesHashed = toHash.size();
+        report.processingTime = System.currentTimeMillis() - startTime;
+        java.util.Collections.sort(report.added);
+        java.util.Collections.sort(report.removed);
+        java.util.Collections.sort(report.modified);
+        java.util.Collections.sort(report.corrupted);
+        java.util.Collections.sort(report.errors);
+        return report;
+    }
+    
+    /**
+     * Lists the tree with one fork-join task per directory, so directory
+     * reads and attribute lookups overlap instead of running one after
+     * another. Symbolic links are not followed.
+     */
+    private Walk walk(java.nio.file.Path root) throws IOException {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threadCount);
+        java.util.concurrent.atomic.AtomicBoolean cancelled = new java.util.concurrent.atomic.AtomicBoolean();
+        try {
+            Walk walk = pool.submit(new DirectoryTask(root, root, cancelled)).get();
+            if (walk.failed.contains("")) {
+                throw new IOException("Cannot read directory: " + root);
+            }
+            return walk;
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Integrity scan interrupted");
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IOException("Directory walk failed: " + root, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private void hashAll(java.nio.file.Path root, java.util.List<IndexEntry> entries, ScanReport report) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threadCount);
+        try {
+            java.util.List<java.util.concurrent.Future<Long>> futures = new java.util.ArrayList<>(entries.size());
+            for (IndexEntry entry : entries) {
+                java.nio.file.Path file = root.resolve(entry.path);
+                futures.add(pool.submit(() -> hashFile(file)));
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                IndexEntry entry = entries.get(i);
+                try {
+                    entry.crc = futures.get(i).get();
+                    report.bytesHashed += entry.size;
+                } catch (java.util.concurrent.ExecutionException e) {
+                    report.errors.add(entry.path);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Integrity scan interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private static long hashFile(java.nio.file.Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.CHECKSUM);
+             InputStream in = java.nio.file.Files.newInputStream(file)) {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                JobScheduler.checkCancelled();
+                crc.update(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+            sample.done(total);
+        }
+        return crc.getValue();
+    }
+    
+    private java.util.Map<String, IndexEntry> loadIndex(File indexFile) throws IOException {
+        java.util.Map<String, IndexEntry> entries = new java.util.HashMap<>();
+        if (!indexFile.isFile()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), HASH_BUFFER_SIZE))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Unsupported integrity index: " + indexFile);
+            }
+            int count = in.readInt();
+            String previousPath = "";
+            for (int i = 0; i < count; i++) {
+                // Paths are stored sorted, as shared-prefix length plus suffix
+                int prefixLength = in.readUnsignedShort();
+                String path = previousPath.substring(0, prefixLength) + in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long crc = in.readInt() & 0xFFFFFFFFL;
+                entries.put(path, new IndexEntry(path, size, lastModified, crc));
+                previousPath = path;
+            }
+        }
+        return entries;
+    }
+    
+    private void saveIndex(File indexFile, java.util.Collection<IndexEntry> sortedEntries) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), INDEX_TEMP_NAME);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), HASH_BUFFER_SIZE))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(sortedEntries.size());
+            String previousPath = "";
+            for (IndexEntry entry : sortedEntries) {
+                int prefixLength = commonPrefixLength(previousPath, entry.path);
+                out.writeShort(prefixLength);
+                out.writeUTF(entry.path.substring(prefixLength));
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeInt((int) entry.crc);
+                previousPath = entry.path;
+            }
+        }
+        java.nio.file.Files.move(tempFile.toPath(), indexFile.toPath(),
+            java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static int commonPrefixLength(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), 0xFFFF);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+    
+    // Files found, plus relative paths that could not be listed or stat'ed ("" is the root)
+    static class Walk {
+        final java.util.List<IndexEntry> entries = new java.util.ArrayList<>();
+        final java.util.List<String> failed = new java.util.ArrayList<>();
+        
+        void add(Walk other) {
+            entries.addAll(other.entries);
+            failed.addAll(other.failed);
+        }
+    }
+    
+    private static class DirectoryTask extends java.util.concurrent.RecursiveTask<Walk> {
+        private final java.nio.file.Path root;
+        private final java.nio.file.Path directory;
+        private final java.util.concurrent.atomic.AtomicBoolean cancelled;
+        
+        DirectoryTask(java.nio.file.Path root, java.nio.file.Path directory,
+                      java.util.concurrent.atomic.AtomicBoolean cancelled) {
+            this.root = root;
+            this.directory = directory;
+            this.cancelled = cancelled;
+        }
+        
+        @Override
+        protected Walk compute() {
+            Walk walk = new Walk();
+            if (cancelled.get()) {
+                return walk;
+            }
+            java.util.List<DirectoryTask> subtasks = new java.util.ArrayList<>();
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> children = java.nio.file.Files.newDirectoryStream(directory)) {
+                for (java.nio.file.Path child : children) {
+                    java.nio.file.attribute.BasicFileAttributes attrs;
+                    try {
+                        attrs = java.nio.file.Files.readAttributes(child, java.nio.file.attribute.BasicFileAttributes.class,
+                            java.nio.file.LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        walk.failed.add(relative(child));
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        DirectoryTask subtask = new DirectoryTask(root, child, cancelled);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else if (attrs.isRegularFile() && !isIndexFile(child)) {
+                        walk.entries.add(new IndexEntry(relative(child), attrs.size(), attrs.lastModifiedTime().toMillis(), -1));
+                    }
+                }
+            } catch (IOException | java.nio.file.DirectoryIteratorException e) {
+                walk.failed.add(relative(directory));
+            }
+            for (DirectoryTask subtask : subtasks) {
+                walk.add(subtask.join());
+            }
+            return walk;
+        }
+        
+        private boolean isIndexFile(java.nio.file.Path file) {
+            if (!directory.equals(root)) {
+                return false;
+            }
+            String name = file.getFileName().toString();
+            return name.equals(INDEX_FILE_NAME) || name.equals(INDEX_TEMP_NAME);
+        }
+        
+        private String relative(java.nio.file.Path path) {
+            return root.relativize(path).toString().replace(File.separatorChar, '/');
+        }
+    }
+    
+    static class IndexEntry {
+        final String path;
+        final long size;
+        final long lastModified;
+        long crc;
+        
+        IndexEntry(String path, long size, long lastModified, long crc) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+    }
+    
+    public static class ScanReport {
+        public final String rootPath;
+        public final boolean verifyAll;
+        public final java.util.List<String> added = new java.util.ArrayList<>();
+        public final java.util.List<String> removed = new java.util.ArrayList<>();
+        public final java.util.List<String> modified = new java.util.ArrayList<>();
+        public final java.util.List<String> corrupted = new java.util.ArrayList<>();
+        public final java.util.List<String> errors = new java.util.ArrayList<>();
+        public int filesScanned;
+        public int filesHashed;
+        public long bytesHashed;
+        public long processingTime;
+        
+        public ScanReport(String rootPath, boolean verifyAll) {
+            this.rootPath = rootPath;
+            this.verifyAll = verifyAll;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                "Integrity Scan Report:\n" +
+                "Directory: %s\n" +
+                "Mode: %s\n" +
+                "Files Scanned: %d\n" +
+                "Files Hashed: %d (%d bytes)\n" +
+                "Added: %d, Removed: %d, Modified: %d, Corrupted: %d, Unreadable: %d\n" +
+                "Processing Time: %d ms",
+                rootPath, verifyAll ? "full verify" : "incremental",
+                filesScanned, filesHashed, bytesHashed,
+                added.size(), removed.size(), modified.size(), corrupted.size(), errors.size(),
+                processingTime
+            ));
+            appendPaths(sb, "C ", corrupted);
+            appendPaths(sb, "M ", modified);
+            appendPaths(sb, "A ", added);
+            appendPaths(sb, "D ", removed);
+            appendPaths(sb, "! ", errors);
+            return sb.toString();
+        }
+        
+        private static void appendPaths(StringBuilder sb, String prefix, java.util.List<String> paths) {
+            for (String path : paths) {
+                sb.append('\n').append(prefix).append(path);
+            }
+        }
+    }
+}
+
+// Compression Module Class
+class CompressionModule {
+    public static final int PARALLEL_BLOCK_SIZE = 1024 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int MAX_PRESIZE = 64 * 1024 * 1024;
+    private static final byte[] FAST_FILE_MAGIC = {'S', 'P', 'L', 'Z'};
+    private static final byte[] INDEXED_FILE_MAGIC = {'S', 'P', 'B', 'Z'};
+    private static final byte[] INDEXED_FOOTER_MAGIC = {'S', 'P', 'B', 'I'};
+    private static final int INDEXED_FOOTER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    public static final int INDEXED_BLOCK_SIZE = 64 * 1024;
+    // Length for the channel form of decompressRange: everything from offset to the end
+    public static final long RANGE_TO_END = -1;
+    private static final int PAYLOAD_MAGIC = 0x5350; // "SP"
+    public static final int PAYLOAD_HEADER_SIZE = 8;
+    public static final int FLAG_STORED_RAW = 0x01;
+    public static final int FLAG_DICTIONARY = 0x02;
+    public static final int FLAG_FRAMED = 0x04;
+    private static final int LZ4_FRAME_SIZE = 64 * 1024;
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    // Deflate cannot expand a stream by more than about 1032:1 (258-byte matches in under two bits each)
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final int ENTROPY_SAMPLE_SIZE = 16 * 1024;
+    private static final int ENTROPY_WINDOW = 256;
+    private static final double ENTROPY_INCOMPRESSIBLE = 7.9;
+    private static final double ENTROPY_TRIAL = 7.0;
+    private static final double TRIAL_MIN_SAVING = 0.05;
+    
+    private final CompressionConfig config;
+    private final LZ4BlockCodec lz4Codec = new LZ4BlockCodec();
+    private final InputModule inputModule = new InputModule();
+    private final java.util.concurrent.ConcurrentHashMap<Integer, CompressionDictionary> dictionaries = new java.util.concurrent.ConcurrentHashMap<>();
+    private volatile CompressionDictionary activeDictionary;
+    private final java.util.concurrent.ConcurrentHashMap<CompressionConfig, CodecPool> codecPools = new java.util.concurrent.ConcurrentHashMap<>();
+    
+    public CompressionModule() {
+        this(CompressionConfig.DEFAULT);
+    }
+    
+    public CompressionModule(CompressionConfig config) {
+        this.config = config;
+    }
+    
+    public CompressionConfig getConfig() {
+        return config;
+    }
+    
+    public CompressionResult compressFile(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
+        return compressFile(inputFile, outputFile, config, callback);
+    }
+    
+    public CompressionResult compressFile(File inputFile, File outputFile, CompressionConfig config, ProgressCallback callback) throws IOException {
+        long originalSize = inputFile.length();
+        long startTime = System.currentTimeMillis();
+        
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.COMPRESS);
+             BufferArena.Lease lease = BufferArena.get().leaseHeap(config.bufferSize);
+             InputStream fis = inputModule.openReadAhead(inputFile);
+             OutputStream fos = inputModule.openWriteBehind(outputFile);
+             GZIPOutputStream gzos = newGzipOutputStream(fos, config)) {
+            
+            byte[] buffer = lease.array();
+            int bytesRead;
+            ProgressTracker tracker = new ProgressTracker(callback, originalSize);
+            
+            while ((bytesRead = fis.read(buffer, 0, config.bufferSize)) != -1) {
+                JobScheduler.checkCancelled();
+                gzos.write(buffer, 0, bytesRead);
+                tracker.advance(bytesRead);
+            }
+            gzos.finish();
+            tracker.finish();
+            sample.done(originalSize);
+        }
+        
+        long compressedSize = outputFile.length();
+        long endTime = System.currentTimeMillis();
+        double compressionRatio = ((double) (originalSize - compressedSize) / originalSize) * 100;
+        
+        return new CompressionResult(
+            inputFile.getName(),
+            outputFile.getName(),
+            originalSize,
+            compressedSize,
+            compressionRatio,
+            endTime - startTime
+        );
+    }
+    
+    /**
+     * Compresses fixed-size blocks on a worker pool and writes them in order as
+     * concatenated gzip members, which GZIPInputStream reads back as one stream.
+     */
+    public CompressionResult compressFileParallel(File inputFile, File outputFile, int threadCount, ProgressCallback callback) throws IOException {
+        return compressFileParallel(inputFile, outputFile, config, threadCount, callback);
+    }
+    
+    public CompressionResult compressFileParallel(File inputFile, File outputFile, CompressionConfig config,
+                                                  int threadCount, ProgressCallback callback) throws IOException {
+        long originalSize = inputFile.length();
+        long startTime = System.currentTimeMillis();
+        int workers = Math.max(1, threadCount);
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(workers);
+        
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.COMPRESS);
+             InputStream fis = inputModule.openReadAhead(inputFile);
+             OutputStream fos = inputModule.openWriteBehind(outputFile)) {
+            
+            // Bound the blocks in flight so memory stays at a few blocks per worker
+            java.util.ArrayDeque<java.util.concurrent.Future<byte[]>> pending = new java.util.ArrayDeque<>();
+            int maxPending = workers * 2;
+            ProgressTracker tracker = new ProgressTracker(callback, originalSize);
+            
+            while (true) {
+                JobScheduler.checkCancelled();
+                BufferArena.Lease block = leaseBlock(fis, PARALLEL_BLOCK_SIZE);
+                if (block == null) {
+                    break;
+                }
+                int blockLength = block.buffer().limit();
+                pending.add(submitBlock(pool, block, config));
+                
+                if (pending.size() >= maxPending) {
+                    fos.write(awaitBlock(pending.poll()));
+                }
+                tracker.advance(blockLength);
+            }
+            
+            while (!pending.isEmpty()) {
+                fos.write(awaitBlock(pending.poll()));
+            }
+            
+            if (originalSize == 0) {
+                // Keep the output a valid gzip stream for empty inputs
+                fos.write(compressData(new byte[0], 0, 0, config));
+            }
+            tracker.finish();
+            sample.done(originalSize);
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        long compressedSize = outputFile.length();
+        long endTime = System.currentTimeMillis();
+        double compressionRatio = originalSize == 0 ? 0 : ((double) (originalSize - compressedSize) / originalSize) * 100;
+        
+        return new CompressionResult(
+            inputFile.getName(),
+            outputFile.getName(),
+            originalSize,
+            compressedSize,
+            compressionRatio,
+            endTime - startTime
+        );
+    }
+    
+    private static byte[] readBlock(InputStream in, int blockSize) throws IOException {
+        byte[] block = new byte[blockSize];
+        int filled = fillBlock(in, block, blockSize);
+        if (filled == 0) {
+            return null;
+        }
+        return filled == blockSize ? block : java.util.Arrays.copyOf(block, filled);
+    }
+    
+    // Like readBlock, into a leased buffer whose limit is set to the bytes read
+    private static BufferArena.Lease leaseBlock(InputStream in, int blockSize) throws IOException {
+        BufferArena.Lease block = BufferArena.get().leaseHeap(blockSize);
+        int filled;
+        try {
+            filled = fillBlock(in, block.array(), blockSize);
+        } catch (IOException | RuntimeException e) {
+            block.close();
+            throw e;
+        }
+        if (filled == 0) {
+            block.close();
+            return null;
+        }
+        block.buffer().limit(filled);
+        return block;
+    }
+    
+    private static int fillBlock(InputStream in, byte[] block, int blockSize) throws IOException {
+        int filled = 0;
+        int bytesRead;
+        while (filled < blockSize && (bytesRead = in.read(block, filled, blockSize - filled)) != -1) {
+            filled += bytesRead;
+        }
+        return filled;
+    }
+    
+    // The worker hands the block back to the arena once it is compressed
+    private java.util.concurrent.Future<byte[]> submitBlock(java.util.concurrent.ExecutorService pool,
+                                                            BufferArena.Lease block, CompressionConfig config) {
+        return pool.submit(() -> {
+            try (BufferArena.Lease lease = block) {
+                return compressData(lease.array(), 0, lease.buffer().limit(), config);
+            }
+        });
+    }
+    
+    private static byte[] awaitBlock(java.util.concurrent.Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Block compression failed", cause);
+        }
+    }
+    
+    /**
+     * Compresses with the LZ4 block codec into a simple framed file:
+     * the "SPLZ" magic followed by [raw length][compressed length][block] frames.
+     */
+    public CompressionResult compressFileFast(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
+        long originalSize = inputFile.length();
+        long startTime = System.currentTimeMillis();
+        
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.COMPRESS);
+             BufferArena.Lease blockLease = BufferArena.get().leaseHeap(PARALLEL_BLOCK_SIZE);
+             BufferArena.Lease compressedLease = BufferArena.get().leaseHeap(LZ4BlockCodec.maxCompressedLength(PARALLEL_BLOCK_SIZE));
+             InputStream fis = inputModule.openReadAhead(inputFile);
+             DataOutputStream dos = new DataOutputStream(inputModule.openWriteBehind(outputFile))) {
+            
+            dos.write(FAST_FILE_MAGIC);
+            byte[] block = blockLease.array();
+            byte[] compressed = compressedLease.array();
+            int blockLength;
+            ProgressTracker tracker = new ProgressTracker(callback, originalSize);
+            
+            while ((blockLength = fillBlock(fis, block, PARALLEL_BLOCK_SIZE)) > 0) {
+                JobScheduler.checkCancelled();
+                int compressedLength = lz4Codec.compress(block, 0, blockLength, compressed, 0);
+                dos.writeInt(blockLength);
+                dos.writeInt(compressedLength);
+                dos.write(compressed, 0, compressedLength);
+                tracker.advance(blockLength);
+            }
+            dos.flush();
+            tracker.finish();
+            sample.done(originalSize);
+        }
+        
+        long compressedSize = outputFile.length();
+        long endTime = System.currentTimeMillis();
+        double compressionRatio = originalSize == 0 ? 0 : ((double) (originalSize - compressedSize) / originalSize) * 100;
+        
+        return new CompressionResult(
+            inputFile.getName(),
+            outputFile.getName(),
+            originalSize,
+            compressedSize,
+            compressionRatio,
+            endTime - startTime
+        );
+    }
+    
+    private void decompressFileFast(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
+        long inputSize = inputFile.length();
+        
+        try (DataInputStream dis = new DataInputStream(inputModule.openReadAhead(inputFile));
+             OutputStream fos = inputModule.openWriteBehind(outputFile)) {
+            
+            dis.skipBytes(FAST_FILE_MAGIC.length);
+            long totalBytesRead = FAST_FILE_MAGIC.length;
+            ProgressTracker tracker = new ProgressTracker(callback, inputSize);
+            tracker.advance(FAST_FILE_MAGIC.length);
+            // compressFileFast never writes a block larger than PARALLEL_BLOCK_SIZE, so
+            // a header claiming more is corrupt and must not size an allocation
+            BufferArena.Lease compressedLease = BufferArena.get().leaseHeap(LZ4BlockCodec.maxCompressedLength(PARALLEL_BLOCK_SIZE));
+            BufferArena.Lease blockLease = BufferArena.get().leaseHeap(PARALLEL_BLOCK_SIZE);
+            try {
+                byte[] compressed = compressedLease.array();
+                byte[] block = blockLease.array();
+                while (totalBytesRead < inputSize) {
+                    JobScheduler.checkCancelled();
+                    int rawLength = dis.readInt();
+                    int compressedLength = dis.readInt();
+                    if (rawLength < 0 || rawLength > PARALLEL_BLOCK_SIZE
+                            || compressedLength < 0 || compressedLength > LZ4BlockCodec.maxCompressedLength(rawLength)) {
+                        throw new ZipException("Corrupt LZ4 frame header");
+                    }
+                    dis.readFully(compressed, 0, compressedLength);
+                    lz4Codec.decompress(compressed, 0, compressedLength, block, 0, rawLength);
+                    fos.write(block, 0, rawLength);
+                    totalBytesRead += 8 + compressedLength;
+                    tracker.advance(8 + compressedLength);
+                }
+            } finally {
+                compressedLease.close();
+                blockLease.close();
+            }
+            tracker.finish();
+        }
+    }
+    
+    /**
+     * Writes a seekable container in the spirit of BGZF: the "SPBZ" magic,
+     * independently gzip-compressed blocks, a block index and a fixed-size
+     * footer pointing at the index. Any byte range can then be read by
+     * inflating only the blocks that cover it.
+     */
+    public CompressionResult compressFileIndexed(File inputFile, File outputFile, int threadCount, ProgressCallback callback) throws IOException {
+        return compressFileIndexed(inputFile, outputFile, config, threadCount, callback);
+    }
+    
+    public CompressionResult compressFileIndexed(File inputFile, File outputFile, CompressionConfig config,
+                                                 int threadCount, ProgressCallback callback) throws IOException {
+        long originalSize = inputFile.length();
+        long startTime = System.currentTimeMillis();
+        int workers = Math.max(1, threadCount);
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(workers);
+        
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.COMPRESS);
+             InputStream fis = inputModule.openReadAhead(inputFile);
+             DataOutputStream dos = new DataOutputStream(inputModule.openWriteBehind(outputFile))) {
+            
+            dos.write(INDEXED_FILE_MAGIC);
+            long position = INDEXED_FILE_MAGIC.length;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            int blockCount = 0;
+            
+            java.util.ArrayDeque<java.util.concurrent.Future<byte[]>> pending = new java.util.ArrayDeque<>();
+            java.util.ArrayDeque<Integer> pendingLengths = new java.util.ArrayDeque<>();
+            int maxPending = workers * 2;
+            ProgressTracker tracker = new ProgressTracker(callback, originalSize);
+            boolean endOfInput = false;
+            
+            while (!endOfInput || !pending.isEmpty()) {
+                JobScheduler.checkCancelled();
+                BufferArena.Lease block = endOfInput ? null : leaseBlock(fis, INDEXED_BLOCK_SIZE);
+                if (block == null) {
+                    endOfInput = true;
+                } else {
+                    int blockLength = block.buffer().limit();
+                    pending.add(submitBlock(pool, block, config));
+                    pendingLengths.add(blockLength);
+                    tracker.advance(blockLength);
+                }
+                
+                if (pending.size() >= maxPending || (endOfInput && !pending.isEmpty())) {
+                    byte[] compressed = awaitBlock(pending.poll());
+                    dos.write(compressed);
+                    indexOut.writeLong(position);
+                    indexOut.writeInt(compressed.length);
+                    indexOut.writeInt(pendingLengths.poll());
+                    position += compressed.length;
+                    blockCount++;
+                }
+            }
+            
+            index.writeTo(dos);
+            dos.writeLong(position);
+            dos.writeInt(blockCount);
+            dos.write(INDEXED_FOOTER_MAGIC);
+            dos.flush();
+            tracker.finish();
+            sample.done(originalSize);
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        long compressedSize = outputFile.length();
+        long endTime = System.currentTimeMillis();
+        double compressionRatio = originalSize == 0 ? 0 : ((double) (originalSize - compressedSize) / originalSize) * 100;
+        
+        return new CompressionResult(
+            inputFile.getName(),
+            outputFile.getName(),
+            originalSize,
+            compressedSize,
+            compressionRatio,
+            endTime - startTime
+        );
+    }
+    
+    public boolean isIndexedFile(File file) throws IOException {
+        return hasMagic(file, INDEXED_FILE_MAGIC);
+    }
+    
+    /**
+     * Returns length bytes starting at the uncompressed offset, inflating only
+     * the blocks of an indexed container that overlap the range.
+     */
+    public byte[] decompressRange(File inputFile, long offset, int length) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(inputFile.toPath(),
+                java.nio.file.StandardOpenOption.READ)) {
+            BlockIndex index = BlockIndex.read(channel);
+            long total = index.totalLength();
+            // Written so that offset + length cannot overflow
+            if (offset < 0 || offset > total || length < 0 || length > total - offset) {
+                throw new IllegalArgumentException("Range " + offset + "+" + length
+                    + " is outside the archive (" + total + " bytes)");
+            }
+            
+            byte[] result = new byte[length];
+            int copied = 0;
+            int blockNumber = index.findBlock(offset);
+            while (copied < length) {
+                byte[] block = readIndexedBlock(channel, index, blockNumber);
+                int start = (int) (offset + copied - index.uncompressedOffsets[blockNumber]);
+                int count = Math.min(block.length - start, length - copied);
+                System.arraycopy(block, start, result, copied, count);
+                copied += count;
+                blockNumber++;
+            }
+            return result;
+        } finally {
+            fileStage.close();
+        }
+    }
+    
+    /**
+     * Channel form of decompressRange: the range is written block by block to
+     * target, so it may be larger than an array can hold. A length of
+     * RANGE_TO_END runs to the end of the archive. Returns the bytes written.
+     */
+    public long decompressRange(File inputFile, long offset, long length,
+                                java.nio.channels.WritableByteChannel target) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(inputFile.toPath(),
+                java.nio.file.StandardOpenOption.READ)) {
+            BlockIndex index = BlockIndex.read(channel);
+            long total = index.totalLength();
+            if (offset < 0 || offset > total) {
+                throw new IllegalArgumentException("Range offset " + offset + " is outside the archive (" + total + " bytes)");
+            }
+            if (length == RANGE_TO_END) {
+                length = total - offset;
+            } else if (length < 0 || length > total - offset) {
+                throw new IllegalArgumentException("Range " + offset + "+" + length
+                    + " is outside the archive (" + total + " bytes)");
+            }
+            
+            long copied = 0;
+            int blockNumber = index.findBlock(offset);
+            while (copied < length) {
+                JobScheduler.checkCancelled();
+                byte[] block = readIndexedBlock(channel, index, blockNumber);
+                int start = (int) (offset + copied - index.uncompressedOffsets[blockNumber]);
+                int count = (int) Math.min(block.length - start, length - copied);
+                java.nio.ByteBuffer slice = java.nio.ByteBuffer.wrap(block, start, count);
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+                copied += count;
+                blockNumber++;
+            }
+            return copied;
+        } finally {
+            fileStage.close();
+        }
+    }
+    
+    private void decompressIndexedFile(File inputFile, File outputFile, int threadCount, ProgressCallback callback) throws IOException {
+        int workers = Math.max(1, threadCount);
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(workers);
+        
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(inputFile.toPath(),
+                java.nio.file.StandardOpenOption.READ);
+             OutputStream fos = inputModule.openWriteBehind(outputFile)) {
+            
+            BlockIndex index = BlockIndex.read(channel);
+            java.util.ArrayDeque<java.util.concurrent.Future<byte[]>> pending = new java.util.ArrayDeque<>();
+            int maxPending = workers * 2;
+            int nextBlock = 0;
+            int written = 0;
+            ProgressTracker tracker = new ProgressTracker(callback, channel.size());
+            
+            while (written < index.blockCount()) {
+                JobScheduler.checkCancelled();
+                while (nextBlock < index.blockCount() && pending.size() < maxPending) {
+                    int blockNumber = nextBlock++;
+                    pending.add(pool.submit(() -> readIndexedBlock(channel, index, blockNumber)));
+                }
+                fos.write(awaitBlock(pending.poll()));
+                tracker.advance(index.compressedLengths[written]);
+                written++;
+            }
+            tracker.finish();
+        } finally {
+            pool.shutdownNow();
+            fileStage.close();
+        }
+    }
+    
+    private byte[] readIndexedBlock(java.nio.channels.FileChannel channel, BlockIndex index, int blockNumber) throws IOException {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(index.compressedLengths[blockNumber]);
+        readFully(channel, buffer, index.compressedOffsets[blockNumber]);
+        byte[] block = decompressData(buffer.array(), 0, buffer.capacity());
+        if (block.length != index.uncompressedLengths[blockNumber]) {
+            throw new ZipException("Block " + blockNumber + " does not match the index");
+        }
+        return block;
+    }
+    
+    private static void readFully(java.nio.channels.FileChannel channel, java.nio.ByteBuffer buffer, long position) throws IOException {
+        StageLimits.Stage wait = StageLimits.ioWait();
+        try {
+            while (buffer.hasRemaining()) {
+                int bytesRead = channel.read(buffer, position + buffer.position());
+                if (bytesRead < 0) {
+                    throw new EOFException("Unexpected end of indexed archive");
+                }
+            }
+        } finally {
+            wait.close();
+        }
+    }
+    
+    private static boolean hasMagic(File file, byte[] expected) throws IOException {
+        byte[] magic = new byte[expected.length];
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            dis.readFully(magic);
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            fileStage.close();
+        }
+        return java.util.Arrays.equals(magic, expected);
+    }
+    
+    public void decompressFile(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.DECOMPRESS)) {
+            decompressFileByFormat(inputFile, outputFile, callback);
+            sample.done(outputFile.length());
+        }
+    }
+    
+    private void decompressFileByFormat(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
+        if (hasMagic(inputFile, FAST_FILE_MAGIC)) {
+            decompressFileFast(inputFile, outputFile, callback);
+            return;
+        }
+        if (hasMagic(inputFile, INDEXED_FILE_MAGIC)) {
+            decompressIndexedFile(inputFile, outputFile, Runtime.getRuntime().availableProcessors(), callback);
+            return;
+        }
+        
+        long inputSize = inputFile.length();
+        
+        // Progress is measured on compressed bytes consumed, the only size known up front
+        ProgressTracker tracker = new ProgressTracker(callback, inputSize);
+        try (BufferArena.Lease lease = BufferArena.get().leaseHeap(config.bufferSize);
+             InputStream fis = tracker.track(inputModule.openReadAhead(inputFile));
+             GZIPInputStream gzis = new GZIPInputStream(fis, config.bufferSize);
+             OutputStream fos = inputModule.openWriteBehind(outputFile)) {
+            
+            byte[] buffer = lease.array();
+            int bytesRead;
+            
+            while ((bytesRead = gzis.read(buffer, 0, config.bufferSize)) != -1) {
+                JobScheduler.checkCancelled();
+                fos.write(buffer, 0, bytesRead);
+            }
+            tracker.finish();
+        }
+    }
+    
+    public byte[] compressData(byte[] data) throws IOException {
+        return compressData(data, 0, data.length, config);
+    }
+    
+    /**
+     * Produces a single gzip member using a pooled raw Deflater and an output
+     * buffer pre-sized to the deflate bound, so no native setup or regrowth
+     * happens per call.
+     */
+    public byte[] compressData(byte[] data, int offset, int length, CompressionConfig config) throws IOException {
+        CodecPool pool = codecPool(config);
+        Deflater deflater = pool.acquireDeflater();
+        try {
+            byte[] out = new byte[GZIP_HEADER.length + deflateBound(length) + 8];
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            int position = GZIP_HEADER.length;
+            
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position == out.length - 8) {
+                    out = java.util.Arrays.copyOf(out, out.length * 2);
+                }
+                position += deflater.deflate(out, position, out.length - 8 - position);
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, length);
+            writeIntLE(out, position, (int) crc.getValue());
+            writeIntLE(out, position + 4, length);
+            return java.util.Arrays.copyOf(out, position + 8);
+        } finally {
+            pool.releaseDeflater(deflater);
+        }
+    }
+    
+    public byte[] decompressData(byte[] compressedData) throws IOException {
+        return decompressData(compressedData, 0, compressedData.length);
+    }
+    
+    public byte[] decompressData(byte[] compressedData, int offset, int length) throws IOException {
+        CodecPool pool = codecPool(config);
+        Inflater inflater = pool.acquireInflater();
+        int end = offset + length;
+        try {
+            byte[] out = new byte[initialInflateCapacity(compressedData, offset, end)];
+            int outLength = 0;
+            int position = offset;
+            
+            // Handles concatenated members the same way GZIPInputStream does
+            do {
+                position = skipGzipHeader(compressedData, position, end);
+                inflater.reset();
+                inflater.setInput(compressedData, position, end - position);
+                int memberStart = outLength;
+                
+                while (!inflater.finished()) {
+                    if (outLength == out.length) {
+                        out = java.util.Arrays.copyOf(out, Math.max(64, out.length * 2));
+                    }
+                    int inflated = inflater.inflate(out, outLength, out.length - outLength);
+                    if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                    outLength += inflated;
+                }
+                
+                position = end - inflater.getRemaining();
+                if (position + 8 > end) {
+                    throw new EOFException("Unexpected end of GZIP trailer");
+                }
+                CRC32 crc = new CRC32();
+                crc.update(out, memberStart, outLength - memberStart);
+                if (readIntLE(compressedData, position) != (int) crc.getValue()
+                        || readIntLE(compressedData, position + 4) != outLength - memberStart) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                position += 8;
+            } while (position + 2 <= end
+                    && ((compressedData[position] & 0xFF) | (compressedData[position + 1] & 0xFF) << 8) == GZIP_MAGIC);
+            
+            return outLength == out.length ? out : java.util.Arrays.copyOf(out, outLength);
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+        } finally {
+            pool.releaseInflater(inflater);
+        }
+    }
+    
+    public byte[] packPayload(byte[] data, Codec codec) throws IOException {
+        return packPayload(data, codec, true);
+    }
+    
+    /**
+     * Compresses an embed payload and prefixes it with a small header
+     * ("SP" magic, codec id, flags, original length) so that extraction
+     * can pick the matching decoder without any user input.
+     * In adaptive mode payloads that look incompressible (or that did not
+     * shrink) are stored raw and flagged with FLAG_STORED_RAW.
+     */
+    public byte[] packPayload(byte[] data, Codec codec, boolean adaptive) throws IOException {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.COMPRESS)) {
+            byte[] payload = encodePayload(data, codec, adaptive);
+            sample.done(data.length);
+            return payload;
+        }
+    }
+    
+    private byte[] encodePayload(byte[] data, Codec codec, boolean adaptive) throws IOException {
+        if (adaptive && codec != Codec.STORED && !isWorthCompressing(data, codec)) {
+            return storeRaw(data, codec);
+        }
+        
+        byte[] payload;
+        int bodyLength;
+        int flags = 0;
+        switch (codec) {
+            case DICTIONARY: {
+                CompressionDictionary dictionary = activeDictionary;
+                if (dictionary == null) {
+                    throw new IllegalStateException("No compression dictionary has been trained or loaded");
+                }
+                // Dictionary id travels right after the fixed header
+                payload = new byte[PAYLOAD_HEADER_SIZE + 4 + deflateBound(data.length)];
+                writeIntBE(payload, PAYLOAD_HEADER_SIZE, dictionary.id);
+                bodyLength = 4 + deflateWithDictionary(data, dictionary, payload, PAYLOAD_HEADER_SIZE + 4);
+                flags = FLAG_DICTIONARY;
+                break;
+            }
+            case GZIP: {
+                byte[] body = compressData(data);
+                payload = new byte[PAYLOAD_HEADER_SIZE + body.length];
+                System.arraycopy(body, 0, payload, PAYLOAD_HEADER_SIZE, body.length);
+                bodyLength = body.length;
+                break;
+            }
+            case LZ4:
+                payload = new byte[PAYLOAD_HEADER_SIZE + LZ4BlockCodec.maxCompressedLength(data.length)];
+                bodyLength = lz4Codec.compress(data, 0, data.length, payload, PAYLOAD_HEADER_SIZE);
+                break;
+            default:
+                payload = new byte[PAYLOAD_HEADER_SIZE + data.length];
+                System.arraycopy(data, 0, payload, PAYLOAD_HEADER_SIZE, data.length);
+                bodyLength = data.length;
+                break;
+        }
+        
+        if (adaptive && codec != Codec.STORED && bodyLength >= data.length) {
+            return storeRaw(data, codec);
+        }
+        
+        writePayloadHeader(payload, codec, flags, data.length);
+        int payloadLength = PAYLOAD_HEADER_SIZE + bodyLength;
+        return payloadLength == payload.length ? payload : java.util.Arrays.copyOf(payload, payloadLength);
+    }
+    
+    private static byte[] storeRaw(byte[] data, Codec codec) {
+        byte[] payload = new byte[PAYLOAD_HEADER_SIZE + data.length];
+        System.arraycopy(data, 0, payload, PAYLOAD_HEADER_SIZE, data.length);
+        writePayloadHeader(payload, codec, FLAG_STORED_RAW, data.length);
+        return payload;
+    }
+    
+    private static void writePayloadHeader(byte[] payload, Codec codec, int flags, int originalLength) {
+        payload[0] = (byte) (PAYLOAD_MAGIC >>> 8);
+        payload[1] = (byte) PAYLOAD_MAGIC;
+        payload[2] = (byte) codec.id;
+        payload[3] = (byte) flags;
+        writeIntBE(payload, 4, originalLength);
+    }
+    
+    /**
+     * Cheap pre-check on a sample of the data: near-random bytes (already
+     * compressed or encrypted content) are rejected outright, borderline
+     * samples are settled by trial-compressing the sample.
+     */
+    private boolean isWorthCompressing(byte[] data, Codec codec) throws IOException {
+        if (data.length < ENTROPY_WINDOW) {
+            return true;
+        }
+        return isSampleWorthCompressing(sample(data), codec);
+    }
+    
+    private boolean isSampleWorthCompressing(byte[] sample, Codec codec) throws IOException {
+        double entropy = estimateEntropy(sample, 0, sample.length);
+        if (entropy >= ENTROPY_INCOMPRESSIBLE) {
+            return false;
+        }
+        if (entropy < ENTROPY_TRIAL) {
+            return true;
+        }
+        int trialLength = codec == Codec.LZ4
+            ? lz4Codec.compress(sample).length
+            : compressData(sample, 0, sample.length, config).length - GZIP_HEADER.length - 8;
+        return trialLength <= sample.length * (1 - TRIAL_MIN_SAVING);
+    }
+    
+    // Evenly spaced windows so the sample covers the whole payload, not just its prefix
+    private static byte[] sample(byte[] data) {
+        if (data.length <= ENTROPY_SAMPLE_SIZE) {
+            return data;
+        }
+        byte[] sample = new byte[ENTROPY_SAMPLE_SIZE];
+        int windows = ENTROPY_SAMPLE_SIZE / ENTROPY_WINDOW;
+        long stride = (data.length - ENTROPY_WINDOW) / (windows - 1);
+        for (int i = 0; i < windows; i++) {
+            System.arraycopy(data, (int) (i * stride), sample, i * ENTROPY_WINDOW, ENTROPY_WINDOW);
+        }
+        return sample;
+    }
+    
+    private static byte[] sample(File file, long length) throws IOException {
+        StageLimits.Stage fileStage = StageLimits.openFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (length <= ENTROPY_SAMPLE_SIZE) {
+                byte[] sample = new byte[(int) length];
+                raf.readFully(sample);
+                return sample;
+            }
+            byte[] sample = new byte[ENTROPY_SAMPLE_SIZE];
+            int windows = ENTROPY_SAMPLE_SIZE / ENTROPY_WINDOW;
+            long stride = (length - ENTROPY_WINDOW) / (windows - 1);
+            for (int i = 0; i < windows; i++) {
+                raf.seek(i * stride);
+                raf.readFully(sample, i * ENTROPY_WINDOW, ENTROPY_WINDOW);
+            }
+            return sample;
+        } finally {
+            fileStage.close();
+        }
+    }
+    
+    /**
+     * Streaming counterpart of packPayload for a file of known length: writes
+     * the payload header to out and returns a stream that encodes whatever is
+     * written to it. Closing the returned stream finishes the payload and
+     * closes out. The adaptive decision is taken up front from a sample of
+     * the file, because a streamed body cannot fall back to raw afterwards.
+     */
+    public OutputStream packingStream(OutputStream out, Codec codec, File source, boolean adaptive) throws IOException {
+        long length = source.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Payload too large: " + length + " bytes");
+        }
+        boolean storeRaw = adaptive && codec != Codec.STORED && length >= ENTROPY_WINDOW
+            && !isSampleWorthCompressing(sample(source, length), codec);
+        return packingStream(out, codec, (int) length, storeRaw);
+    }
+    
+    public OutputStream packingStream(OutputStream out, Codec codec, int originalLength, boolean storeRaw) throws IOException {
+        Metrics.SinkTimer sink = new Metrics.SinkTimer(out);
+        return Metrics.meter(Metrics.Stage.COMPRESS, openPackingStream(sink, codec, originalLength, storeRaw), sink);
+    }
+    
+    private OutputStream openPackingStream(OutputStream out, Codec codec, int originalLength, boolean storeRaw) throws IOException {
+        if (storeRaw || codec == Codec.STORED) {
+            byte[] header = new byte[PAYLOAD_HEADER_SIZE];
+            writePayloadHeader(header, codec, storeRaw ? FLAG_STORED_RAW : 0, originalLength);
+            out.write(header);
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+            };
+        }
+        
+        switch (codec) {
+            case LZ4: {
+                byte[] header = new byte[PAYLOAD_HEADER_SIZE];
+                writePayloadHeader(header, codec, FLAG_FRAMED, originalLength);
+                out.write(header);
+                return new LZ4FrameOutputStream(out, lz4Codec);
+            }
+            case DICTIONARY: {
+                CompressionDictionary dictionary = activeDictionary;
+                if (dictionary == null) {
+                    throw new IllegalStateException("No compression dictionary has been trained or loaded");
+                }
+                byte[] header = new byte[PAYLOAD_HEADER_SIZE + 4];
+                writePayloadHeader(header, codec, FLAG_DICTIONARY, originalLength);
+                writeIntBE(header, PAYLOAD_HEADER_SIZE, dictionary.id);
+                out.write(header);
+                
+                CodecPool pool = codecPool(config);
+                Deflater deflater = pool.acquireDeflater();
+                deflater.setDictionary(dictionary.bytes);
+                return new DeflaterOutputStream(out, deflater, config.bufferSize) {
+                    private boolean closed;
+                    
+                    @Override
+                    public void close() throws IOException {
+                        if (closed) {
+                            return;
+                        }
+                        closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            pool.releaseDeflater(def);
+                        }
+                    }
+                };
+            }
+            default: {
+                byte[] header = new byte[PAYLOAD_HEADER_SIZE];
+                writePayloadHeader(header, codec, 0, originalLength);
+                out.write(header);
+                return newGzipOutputStream(out, config);
+            }
+        }
+    }
+    
+    /**
+     * Order-0 Shannon entropy in bits per byte (0 to 8).
+     */
+    public static double estimateEntropy(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+    
+    /**
+     * Reverses packPayload. Bare gzip data from older embeds is still accepted.
+     */
+    public byte[] unpackPayload(byte[] payload) throws IOException {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.DECOMPRESS)) {
+            byte[] data = decodePayload(payload);
+            sample.done(data.length);
+            return data;
+        }
+    }
+    
+    private byte[] decodePayload(byte[] payload) throws IOException {
+        if (!hasPayloadHeader(payload)) {
+            if (payload.length >= 2 && ((payload[0] & 0xFF) | (payload[1] & 0xFF) << 8) == GZIP_MAGIC) {
+                return decompressData(payload);
+            }
+            throw new ZipException("Unrecognized payload format");
+        }
+        
+        Codec codec = Codec.fromId(payload[2] & 0xFF);
+        int flags = payload[3] & 0xFF;
+        int originalLength = readIntBE(payload, 4);
+        int bodyLength = payload.length - PAYLOAD_HEADER_SIZE;
+        // hasPayloadHeader has already turned away negative lengths
+        if ((flags & FLAG_STORED_RAW) != 0) {
+            if (bodyLength < originalLength) {
+                throw new EOFException("Truncated payload");
+            }
+            return java.util.Arrays.copyOfRange(payload, PAYLOAD_HEADER_SIZE, PAYLOAD_HEADER_SIZE + originalLength);
+        }
+        if ((flags & FLAG_DICTIONARY) != 0) {
+            if (bodyLength < 4) {
+                throw new EOFException("Truncated payload");
+            }
+            int dictionaryId = readIntBE(payload, PAYLOAD_HEADER_SIZE);
+            CompressionDictionary dictionary = dictionaries.get(dictionaryId);
+            if (dictionary == null) {
+                throw new ZipException(String.format("Payload needs compression dictionary %08x, which is not loaded", dictionaryId));
+            }
+            return inflateWithDictionary(payload, PAYLOAD_HEADER_SIZE + 4, bodyLength - 4, dictionary, originalLength);
+        }
+        if ((flags & FLAG_FRAMED) != 0 && codec == Codec.LZ4) {
+            return unpackFramedLz4(payload, PAYLOAD_HEADER_SIZE, bodyLength, originalLength);
+        }
+        switch (codec) {
+            case GZIP:
+                return decompressData(payload, PAYLOAD_HEADER_SIZE, bodyLength);
+            case LZ4:
+                return lz4Codec.decompress(payload, PAYLOAD_HEADER_SIZE, bodyLength, originalLength);
+            default:
+                return java.util.Arrays.copyOfRange(payload, PAYLOAD_HEADER_SIZE, payload.length);
+        }
+    }
+    
+    /**
+     * Streaming counterpart of unpackPayload: reads the payload header from in
+     * and returns a stream that decodes the body as it is read. Closing the
+     * returned stream closes in.
+     */
+    public InputStream unpackingStream(InputStream in) throws IOException {
+        Metrics.SourceTimer source = new Metrics.SourceTimer(in);
+        return Metrics.meter(Metrics.Stage.DECOMPRESS, openUnpackingStream(source), source);
+    }
+    
+    private InputStream openUnpackingStream(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, PAYLOAD_HEADER_SIZE);
+        byte[] header = readBlock(pushback, PAYLOAD_HEADER_SIZE);
+        if (header == null || !hasPayloadHeader(header)) {
+            if (header != null) {
+                pushback.unread(header);
+                if (header.length >= 2 && ((header[0] & 0xFF) | (header[1] & 0xFF) << 8) == GZIP_MAGIC) {
+                    return new GZIPInputStream(pushback, config.bufferSize);
+                }
+            }
+            throw new ZipException("Unrecognized payload format");
+        }
+        
+        Codec codec = Codec.fromId(header[2] & 0xFF);
+        int flags = header[3] & 0xFF;
+        int originalLength = readIntBE(header, 4);
+        if ((flags & FLAG_STORED_RAW) != 0 || codec == Codec.STORED) {
+            return new ExactLengthInputStream(pushback, originalLength);
+        }
+        if ((flags & FLAG_DICTIONARY) != 0) {
+            byte[] id = readBlock(pushback, 4);
+            if (id == null || id.length < 4) {
+                throw new EOFException("Truncated payload");
+            }
+            int dictionaryId = readIntBE(id, 0);
+            CompressionDictionary dictionary = dictionaries.get(dictionaryId);
+            if (dictionary == null) {
+                throw new ZipException(String.format("Payload needs compression dictionary %08x, which is not loaded", dictionaryId));
+            }
+            CodecPool pool = codecPool(config);
+            Inflater inflater = pool.acquireInflater();
+            // Raw streams never ask for the dictionary, so it is set up front
+            inflater.setDictionary(dictionary.bytes);
+            InputStream inflating = new InflaterInputStream(pushback, inflater, config.bufferSize) {
+                private boolean closed;
+                
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        pool.releaseInflater(inf);
+                    }
+                }
+            };
+            return new ExactLengthInputStream(inflating, originalLength);
+        }
+        switch (codec) {
+            case GZIP:
+                // The gzip trailer already checks length and CRC
+                return new GZIPInputStream(pushback, config.bufferSize);
+            case LZ4:
+                if ((flags & FLAG_FRAMED) != 0) {
+                    return new LZ4FrameInputStream(pushback, lz4Codec, originalLength);
+                }
+                // Unframed LZ4 is a single block, so it can only be decoded whole
+                try (InputStream body = pushback) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[config.bufferSize];
+                    int bytesRead;
+                    while ((bytesRead = body.read(buffer)) != -1) {
+                        compressed.write(buffer, 0, bytesRead);
+                    }
+                    byte[] block = compressed.toByteArray();
+                    return new ByteArrayInputStream(lz4Codec.decompress(block, 0, block.length, originalLength));
+                }
+            default:
+                throw new ZipException("Unsupported codec: " + codec);
+        }
+    }
+    
+    // Frames are [compressed length][LZ4 block]; every frame but the last holds LZ4_FRAME_SIZE bytes
+    private byte[] unpackFramedLz4(byte[] data, int offset, int length, int originalLength) throws IOException {
+        if (originalLength < 0 || originalLength > LZ4BlockCodec.maxDecompressedLength(length)) {
+            throw new ZipException("Payload length does not match its header");
+        }
+        byte[] out = new byte[originalLength];
+        int position = offset;
+        int end = offset + length;
+        int outPosition = 0;
+        while (outPosition < originalLength) {
+            if (position + 4 > end) {
+                throw new EOFException("Truncated LZ4 frame");
+            }
+            int compressedLength = readIntBE(data, position);
+            position += 4;
+            if (compressedLength < 0 || compressedLength > end - position) {
+                throw new ZipException("Corrupt LZ4 frame");
+            }
+            int rawLength = Math.min(LZ4_FRAME_SIZE, originalLength - outPosition);
+            lz4Codec.decompress(data, position, compressedLength, out, outPosition, rawLength);
+            position += compressedLength;
+            outPosition += rawLength;
+        }
+        return out;
+    }
+    
+    private int deflateWithDictionary(byte[] data, CompressionDictionary dictionary, byte[] out, int offset) {
+        CodecPool pool = codecPool(config);
+        Deflater deflater = pool.acquireDeflater();
+        try {
+            deflater.setDictionary(dictionary.bytes);
+            deflater.setInput(data);
+            deflater.finish();
+            int position = offset;
+            while (!deflater.finished()) {
+                position += deflater.deflate(out, position, out.length - position);
+            }
+            return position - offset;
+        } finally {
+            pool.releaseDeflater(deflater);
+        }
+    }
+    
+    private byte[] inflateWithDictionary(byte[] data, int offset, int length, CompressionDictionary dictionary,
+                                         int originalLength) throws IOException {
+        if (originalLength > (long) length * MAX_DEFLATE_RATIO + 64) {
+            throw new ZipException("Payload length does not match its header");
+        }
+        CodecPool pool = codecPool(config);
+        Inflater inflater = pool.acquireInflater();
+        try {
+            // Raw streams never ask for the dictionary, so it is set up front
+            inflater.setDictionary(dictionary.bytes);
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[originalLength];
+            byte[] overflow = new byte[1];
+            int position = 0;
+            while (!inflater.finished()) {
+                int inflated;
+                if (position < out.length) {
+                    inflated = inflater.inflate(out, position, out.length - position);
+                    position += inflated;
+                } else {
+                    // Output is full; this only has to reach the end-of-stream marker
+                    inflated = inflater.inflate(overflow);
+                    if (inflated > 0) {
+                        throw new ZipException("Payload length does not match its header");
+                    }
+                }
+                if (inflated == 0 && !inflater.finished() && inflater.needsInput()) {
+                    throw new ZipException("Corrupt dictionary-compressed payload");
+                }
+            }
+            if (position != originalLength) {
+                throw new ZipException("Payload length does not match its header");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+        } finally {
+            pool.releaseInflater(inflater);
+        }
+    }
+    
+    public void registerDictionary(CompressionDictionary dictionary) {
+        dictionaries.put(dictionary.id, dictionary);
+    }
+    
+    public void setActiveDictionary(CompressionDictionary dictionary) {
+        registerDictionary(dictionary);
+        activeDictionary = dictionary;
+    }
+    
+    public CompressionDictionary getActiveDictionary() {
+        return activeDictionary;
+    }
+    
+    public File saveDictionary(CompressionDictionary dictionary, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create dictionary directory: " + directory);
+        }
+        File file = new File(directory, dictionary.idHex() + ".dict");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(dictionary.bytes);
+        }
+        return file;
+    }
+    
+    /**
+     * Registers every *.dict file in the directory; the most recently
+     * written one becomes the active dictionary. Returns the number loaded.
+     */
+    public int loadDictionaries(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".dict"));
+        if (files == null) {
+            return 0;
+        }
+        File newest = null;
+        CompressionDictionary newestDictionary = null;
+        for (File file : files) {
+            byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+            if (bytes.length == 0 || bytes.length > MAX_DICTIONARY_SIZE) {
+                continue;
+            }
+            CompressionDictionary dictionary = new CompressionDictionary(bytes);
+            registerDictionary(dictionary);
+            if (newest == null || file.lastModified() > newest.lastModified()) {
+                newest = file;
+                newestDictionary = dictionary;
+            }
+        }
+        if (newestDictionary != null) {
+            activeDictionary = newestDictionary;
+        }
+        return dictionaries.size();
+    }
+    
+    private static boolean hasPayloadHeader(byte[] payload) {
+        return payload.length >= PAYLOAD_HEADER_SIZE
+            && ((payload[0] & 0xFF) << 8 | (payload[1] & 0xFF)) == PAYLOAD_MAGIC
+            && readIntBE(payload, 4) >= 0;
+    }
+    
+    private CodecPool codecPool(CompressionConfig config) {
+        return codecPools.computeIfAbsent(config, CodecPool::new);
+    }
+    
+    private static GZIPOutputStream newGzipOutputStream(OutputStream out, CompressionConfig config) throws IOException {
+        return new GZIPOutputStream(out, config.bufferSize) {
+            {
+                def.setLevel(config.level);
+                def.setStrategy(config.strategy);
+            }
+        };
+    }
+    
+    private static int deflateBound(int length) {
+        // zlib's deflateBound() plus slack for the stored-block worst case
+        long bound = (long) length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 64;
+        return (int) Math.min(bound, Integer.MAX_VALUE - 32);
+    }
+    
+    private static int initialInflateCapacity(byte[] compressedData, int offset, int end) {
+        if (end - offset < GZIP_HEADER.length + 8) {
+            return 64;
+        }
+        // ISIZE of the last member is a good size hint for single-member payloads
+        long isize = readIntLE(compressedData, end - 4) & 0xFFFFFFFFL;
+        return (int) Math.max(64, Math.min(isize, MAX_PRESIZE));
+    }
+    
+    private static int skipGzipHeader(byte[] data, int position, int end) throws IOException {
+        if (position + GZIP_HEADER.length > end
+                || ((data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8) != GZIP_MAGIC
+                || data[position + 2] != Deflater.DEFLATED) {
+            throw new ZipException("Not in GZIP format");
+        }
+        int flags = data[position + 3] & 0xFF;
+        position += GZIP_HEADER.length;
+        if ((flags & 4) != 0) { // FEXTRA
+            if (position + 2 > end) {
+                throw new EOFException("Unexpected end of GZIP header");
+            }
+            position += 2 + ((data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8);
+        }
+        if ((flags & 8) != 0) { // FNAME
+            while (position < end && data[position++] != 0) {
+            }
+        }
+        if ((flags & 16) != 0) { // FCOMMENT
+            while (position < end && data[position++] != 0) {
+            }
+        }
+        if ((flags & 2) != 0) { // FHCRC
+            position += 2;
+        }
+        if (position > end) {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+        return position;
+    }
+    
+    private static void writeIntLE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+    
+    private static void writeIntBE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+    
+    private static int readIntBE(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+            | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+    
+    private static int readIntLE(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8
+            | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+    }
+    
+    // Plain lambdas see only the percentage; implement progressChanged for rate and ETA
+    public interface ProgressCallback extends ProgressListener {
+        void updateProgress(int progress);
+        
+        @Override
+        default void progressChanged(ProgressTracker.ProgressEvent event) {
+            updateProgress(event.percent);
+        }
+    }
+    
+    public enum Codec {
+        STORED(0, "None"),
+        GZIP(1, "GZIP"),
+        LZ4(2, "LZ4 (fast)"),
+        DICTIONARY(3, "Deflate + dictionary");
+        
+        public final int id;
+        private final String label;
+        
+        Codec(int id, String label) {
+            this.id = id;
+            this.label = label;
+        }
+        
+        public static Codec fromId(int id) throws ZipException {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new ZipException("Unknown payload codec: " + id);
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    private static class LZ4FrameOutputStream extends FilterOutputStream {
+        private final LZ4BlockCodec codec;
+        // Leased arrays may be longer than asked for, so LZ4_FRAME_SIZE bounds a block
+        private final BufferArena.Lease blockLease = BufferArena.get().leaseHeap(LZ4_FRAME_SIZE);
+        private final BufferArena.Lease frameLease = BufferArena.get().leaseHeap(4 + LZ4BlockCodec.maxCompressedLength(LZ4_FRAME_SIZE));
+        private final byte[] block = blockLease.array();
+        private final byte[] frame = frameLease.array();
+        private int blockLength;
+        private boolean closed;
+        
+        LZ4FrameOutputStream(OutputStream out, LZ4BlockCodec codec) {
+            super(out);
+            this.codec = codec;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            block[blockLength++] = (byte) b;
+            if (blockLength == LZ4_FRAME_SIZE) {
+                writeFrame();
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int count = Math.min(len, LZ4_FRAME_SIZE - blockLength);
+                System.arraycopy(b, off, block, blockLength, count);
+                blockLength += count;
+                off += count;
+                len -= count;
+                if (blockLength == LZ4_FRAME_SIZE) {
+                    writeFrame();
+                }
+            }
+        }
+        
+        // Frame sizes are implied, so a partial block is never flushed early
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeFrame();
+            } finally {
+                blockLease.close();
+                frameLease.close();
+                out.close();
+            }
+        }
+        
+        // The arrays go back to the arena on close
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+        
+        private void writeFrame() throws IOException {
+            if (blockLength == 0) {
+                return;
+            }
+            int compressedLength = codec.compress(block, 0, blockLength, frame, 4);
+            writeIntBE(frame, 0, compressedLength);
+            out.write(frame, 0, 4 + compressedLength);
+            blockLength = 0;
+        }
+    }
+    
+    // Read side of LZ4FrameOutputStream; decodes one frame at a time
+    private static class LZ4FrameInputStream extends FilterInputStream {
+        private final LZ4BlockCodec codec;
+        private final BufferArena.Lease frameLease = BufferArena.get().leaseHeap(LZ4BlockCodec.maxCompressedLength(LZ4_FRAME_SIZE));
+        private final BufferArena.Lease blockLease = BufferArena.get().leaseHeap(LZ4_FRAME_SIZE);
+        private final byte[] frame = frameLease.array();
+        private final byte[] block = blockLease.array();
+        private boolean closed;
+        private int remaining;
+        private int blockPosition;
+        private int blockLength;
+        
+        LZ4FrameInputStream(InputStream in, LZ4BlockCodec codec, int originalLength) {
+            super(in);
+            this.codec = codec;
+            this.remaining = originalLength;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (blockPosition == blockLength && !nextFrame()) {
+                return -1;
+            }
+            return block[blockPosition++] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (blockPosition == blockLength && !nextFrame()) {
+                return -1;
+            }
+            int count = Math.min(len, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, b, off, count);
+            blockPosition += count;
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && (blockPosition < blockLength || nextFrame())) {
+                int count = (int) Math.min(n - skipped, blockLength - blockPosition);
+                blockPosition += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public int available() {
+            return blockLength - blockPosition;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            blockPosition = 0;
+            blockLength = 0;
+            try {
+                super.close();
+            } finally {
+                frameLease.close();
+                blockLease.close();
+            }
+        }
+        
+        private boolean nextFrame() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (remaining == 0) {
+                return false;
+            }
+            readFrameBytes(frame, 4);
+            int compressedLength = readIntBE(frame, 0);
+            if (compressedLength < 0 || compressedLength > LZ4BlockCodec.maxCompressedLength(LZ4_FRAME_SIZE)) {
+                throw new ZipException("Corrupt LZ4 frame");
+            }
+            readFrameBytes(frame, compressedLength);
+            int rawLength = Math.min(LZ4_FRAME_SIZE, remaining);
+            codec.decompress(frame, 0, compressedLength, block, 0, rawLength);
+            remaining -= rawLength;
+            blockPosition = 0;
+            blockLength = rawLength;
+            return true;
+        }
+        
+        private void readFrameBytes(byte[] buffer, int length) throws IOException {
+            int filled = 0;
+            while (filled < length) {
+                int bytesRead = in.read(buffer, filled, length - filled);
+                if (bytesRead == -1) {
+                    throw new EOFException("Truncated LZ4 frame");
+                }
+                filled += bytesRead;
+            }
+        }
+    }
+    
+    // Ends after exactly length bytes and fails if the source runs out sooner
+    private static class ExactLengthInputStream extends FilterInputStream {
+        private long remaining;
+        
+        ExactLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Payload length does not match its header");
+            }
+            remaining--;
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            int bytesRead = in.read(b, off, (int) Math.min(len, remaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Payload length does not match its header");
+            }
+            remaining -= bytesRead;
+            return bytesRead;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    
+    // Block table of an indexed container, loaded from its footer
+    static class BlockIndex {
+        final long[] compressedOffsets;
+        final int[] compressedLengths;
+        final long[] uncompressedOffsets;
+        final int[] uncompressedLengths;
+        
+        private BlockIndex(int blockCount) {
+            compressedOffsets = new long[blockCount];
+            compressedLengths = new int[blockCount];
+            uncompressedOffsets = new long[blockCount + 1];
+            uncompressedLengths = new int[blockCount];
+        }
+        
+        static BlockIndex read(java.nio.channels.FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size < INDEXED_FILE_MAGIC.length + INDEXED_FOOTER_SIZE) {
+                throw new ZipException("Not an indexed archive");
+            }
+            java.nio.ByteBuffer footer = java.nio.ByteBuffer.allocate(INDEXED_FOOTER_SIZE);
+            readFully(channel, footer, size - INDEXED_FOOTER_SIZE);
+            footer.flip();
+            long indexOffset = footer.getLong();
+            int blockCount = footer.getInt();
+            byte[] magic = new byte[INDEXED_FOOTER_MAGIC.length];
+            footer.get(magic);
+            if (!java.util.Arrays.equals(magic, INDEXED_FOOTER_MAGIC) || blockCount < 0
+                    || (long) blockCount * INDEX_ENTRY_SIZE > Integer.MAX_VALUE
+                    || indexOffset < INDEXED_FILE_MAGIC.length
+                    || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != size - INDEXED_FOOTER_SIZE) {
+                throw new ZipException("Corrupt or missing archive index");
+            }
+            
+            java.nio.ByteBuffer entries = java.nio.ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE);
+            readFully(channel, entries, indexOffset);
+            entries.flip();
+            BlockIndex index = new BlockIndex(blockCount);
+            // Blocks must tile the data area exactly, each holding at most one
+            // INDEXED_BLOCK_SIZE block, or reads would go out of bounds or misplace ranges
+            long expectedOffset = INDEXED_FILE_MAGIC.length;
+            for (int i = 0; i < blockCount; i++) {
+                index.compressedOffsets[i] = entries.getLong();
+                index.compressedLengths[i] = entries.getInt();
+                index.uncompressedLengths[i] = entries.getInt();
+                if (index.compressedOffsets[i] != expectedOffset || index.compressedLengths[i] <= 0
+                        || index.uncompressedLengths[i] <= 0 || index.uncompressedLengths[i] > INDEXED_BLOCK_SIZE) {
+                    throw new ZipException("Corrupt or missing archive index");
+                }
+                expectedOffset += index.compressedLengths[i];
+                index.uncompressedOffsets[i + 1] = index.uncompressedOffsets[i] + index.uncompressedLengths[i];
+            }
+            if (expectedOffset != indexOffset) {
+                throw new ZipException("Corrupt or missing archive index");
+            }
+            return index;
+        }
+        
+        int blockCount() {
+            return compressedOffsets.length;
+        }
+        
+        long totalLength() {
+            return uncompressedOffsets[blockCount()];
+        }
+        
+        // Last block whose start is at or before the offset
+        int findBlock(long offset) {
+            int low = 0;
+            int high = blockCount() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (uncompressedOffsets[mid] <= offset) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+    
+    // Preset deflate dictionary, identified by the Adler-32 of its bytes as in zlib
+    public static class CompressionDictionary {
+        public final int id;
+        final byte[] bytes;
+        
+        public CompressionDictionary(byte[] bytes) {
+            if (bytes.length > MAX_DICTIONARY_SIZE) {
+                bytes = java.util.Arrays.copyOfRange(bytes, bytes.length - MAX_DICTIONARY_SIZE, bytes.length);
+            }
+            this.bytes = bytes.clone();
+            Adler32 adler = new Adler32();
+            adler.update(this.bytes);
+            this.id = (int) adler.getValue();
+        }
+        
+        public int size() {
+            return bytes.length;
+        }
+        
+        public String idHex() {
+            return String.format("%08x", id);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("dictionary %s (%d bytes)", idHex(), bytes.length);
+        }
+    }
+    
+    public static class CompressionConfig {
+        public static final CompressionConfig DEFAULT =
+            new CompressionConfig(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 64 * 1024);
+        
+        public final int level;
+        public final int strategy;
+        public final int bufferSize;
+        
+        public CompressionConfig(int level, int strategy, int bufferSize) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid compression level: " + level);
+            }
+            if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+                throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+            }
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+            }
+            this.level = level;
+            this.strategy = strategy;
+            this.bufferSize = bufferSize;
+        }
+        
+        public CompressionConfig withLevel(int level) {
+            return new CompressionConfig(level, strategy, bufferSize);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CompressionConfig)) {
+                return false;
+            }
+            CompressionConfig other = (CompressionConfig) o;
+            return level == other.level && strategy == other.strategy && bufferSize == other.bufferSize;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (level * 31 + strategy) * 31 + bufferSize;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("level=%d, strategy=%d, buffer=%d bytes", level, strategy, bufferSize);
+        }
+    }
+    
+    // Reusable raw Deflater/Inflater instances for one configuration
+    static class CodecPool {
+        private final CompressionConfig config;
+        private final int maxIdle = Runtime.getRuntime().availableProcessors() * 2;
+        private final java.util.concurrent.ConcurrentLinkedQueue<Deflater> deflaters = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        private final java.util.concurrent.ConcurrentLinkedQueue<Inflater> inflaters = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        private final java.util.concurrent.atomic.AtomicInteger idleDeflaters = new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.atomic.AtomicInteger idleInflaters = new java.util.concurrent.atomic.AtomicInteger();
+        
+        CodecPool(CompressionConfig config) {
+            this.config = config;
+        }
+        
+        Deflater acquireDeflater() {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(config.level, true);
+                deflater.setStrategy(config.strategy);
+                return deflater;
+            }
+            idleDeflaters.decrementAndGet();
+            return deflater;
+        }
+        
+        void releaseDeflater(Deflater deflater) {
+            if (idleDeflaters.incrementAndGet() > maxIdle) {
+                idleDeflaters.decrementAndGet();
+                deflater.end();
+                return;
+            }
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+        
+        Inflater acquireInflater() {
+            Inflater inflater = inflaters.poll();
+            if (inflater == null) {
+                return new Inflater(true);
+            }
+            idleInflaters.decrementAndGet();
+            return inflater;
+        }
+        
+        void releaseInflater(Inflater inflater) {
+            if (idleInflaters.incrementAndGet() > maxIdle) {
+                idleInflaters.decrementAndGet();
+                inflater.end();
+                return;
+            }
+            inflater.reset();
+            inflaters.offer(inflater);
+        }
+    }
+    
+    public static class CompressionResult {
+        public final String sourceFileName;
+        public final String destinationFileName;
+        public final long originalSize;
+        public final long compressedSize;
+        public final double compressionRatio;
+        public final long processingTime;
+        
+        public CompressionResult(String sourceFileName, String destinationFileName,
+                               long originalSize, long compressedSize,
+                               double compressionRatio, long processingTime) {
+            this.sourceFileName = sourceFileName;
+            this.destinationFileName = destinationFileName;
+            this.originalSize = originalSize;
+            this.compressedSize = compressedSize;
+            this.compressionRatio = compressionRatio;
+            this.processingTime = processingTime;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(
+                "Compression Report:\n" +
+                "Source File: %s\n" +
+                "Destination File: %s\n" +
+                "Original Size: %d bytes\n" +
+                "Compressed Size: %d bytes\n" +
+                "Compression Ratio: %.2f%%\n" +
+                "Processing Time: %d ms",
+                sourceFileName, destinationFileName, originalSize, 
+                compressedSize, compressionRatio, processingTime
+            );
+        }
+    }
+}
+
+// Dictionary Trainer Class
+// Greedy segment selection in the spirit of zstd's COVER trainer: keep the
+// sample segments whose 6-byte shingles recur across the most samples.
+class DictionaryTrainer {
+    private static final int SHINGLE_LENGTH = 6;
+    private static final int SEGMENT_LENGTH = 48;
+    
+    public CompressionModule.CompressionDictionary train(java.util.List<byte[]> samples, int maxSize) throws InterruptedIOException {
+        int targetSize = Math.min(maxSize, CompressionModule.MAX_DICTIONARY_SIZE);
+        
+        // Number of samples containing each shingle
+        java.util.Map<Long, Integer> frequencies = new java.util.HashMap<>();
+        for (byte[] sample : samples) {
+            JobScheduler.checkCancelled();
+            java.util.Set<Long> seen = new java.util.HashSet<>();
+            for (int i = 0; i + SHINGLE_LENGTH <= sample.length; i++) {
+                long shingle = shingleAt(sample, i);
+                if (seen.add(shingle)) {
+                    frequencies.merge(shingle, 1, Integer::sum);
+                }
+            }
+        }
+        
+        java.util.PriorityQueue<Segment> queue = new java.util.PriorityQueue<>();
+        java.util.Set<Long> covered = new java.util.HashSet<>();
+        for (byte[] sample : samples) {
+            JobScheduler.checkCancelled();
+            for (int start = 0; start < sample.length; start += SEGMENT_LENGTH / 2) {
+                int end = Math.min(sample.length, start + SEGMENT_LENGTH);
+                Segment segment = new Segment(sample, start, end);
+                segment.score = score(segment, frequencies, covered);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+        
+        // Lazy greedy: a segment is accepted only if it still beats the next best after rescoring
+        java.util.List<Segment> selected = new java.util.ArrayList<>();
+        int totalSize = 0;
+        while (!queue.isEmpty() && totalSize < targetSize) {
+            JobScheduler.checkCancelled();
+            Segment segment = queue.poll();
+            long current = score(segment, frequencies, covered);
+            if (current <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && current < queue.peek().score) {
+                segment.score = current;
+                queue.add(segment);
+                continue;
+            }
+            selected.add(segment);
+            totalSize += segment.end - segment.start;
+            for (int i = segment.start; i + SHINGLE_LENGTH <= segment.end; i++) {
+                covered.add(shingleAt(segment.sample, i));
+            }
+        }
+        
+        // Deflate reaches the end of the dictionary with the shortest distances, so best goes last
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(totalSize);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            Segment segment = selected.get(i);
+            dictionary.write(segment.sample, segment.start, segment.end - segment.start);
+        }
+        byte[] bytes = dictionary.toByteArray();
+        if (bytes.length > targetSize) {
+            bytes = java.util.Arrays.copyOfRange(bytes, bytes.length - targetSize, bytes.length);
+        }
+        return new CompressionModule.CompressionDictionary(bytes);
+    }
+    
+    private static long score(Segment segment, java.util.Map<Long, Integer> frequencies, java.util.Set<Long> covered) {
+        long score = 0;
+        java.util.Set<Long> counted = new java.util.HashSet<>();
+        for (int i = segment.start; i + SHINGLE_LENGTH <= segment.end; i++) {
+            long shingle = shingleAt(segment.sample, i);
+            if (!covered.contains(shingle) && counted.add(shingle)) {
+                score += frequencies.get(shingle) - 1;
+            }
+        }
+        return score;
+    }
+    
+    private static long shingleAt(byte[] data, int offset) {
+        long shingle = 0;
+        for (int i = 0; i < SHINGLE_LENGTH; i++) {
+            shingle = (shingle << 8) | (data[offset + i] & 0xFF);
+        }
+        return shingle;
+    }
+    
+    private static class Segment implements Comparable<Segment> {
+        final byte[] sample;
+        final int start;
+        final int end;
+        long score;
+        
+        Segment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public int compareTo(Segment other) {
+            return Long.compare(other.score, score);
+        }
+    }
+}
+
+// LZ4 Block Codec Class
+class LZ4BlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+    // compress() refills the table on every call, so each thread keeps one
+    private static final ThreadLocal<int[]> HASH_TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+    
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+    
+    // Each byte of a match length adds at most 255 output bytes, so lengths
+    // read from a header can be checked before anything is allocated
+    public static long maxDecompressedLength(long compressedLength) {
+        return compressedLength * 255 + 16;
+    }
+    
+    public byte[] compress(byte[] data) {
+        return compress(data, 0, data.length);
+    }
+    
+    public byte[] compress(byte[] src, int srcOff, int srcLen) {
+        byte[] dst = new byte[maxCompressedLength(srcLen)];
+        int length = compress(src, srcOff, srcLen, dst, 0);
+        return java.util.Arrays.copyOf(dst, length);
+    }
+    
+    /**
+     * Greedy single-pass LZ4 block compression. dst must have room for
+     * maxCompressedLength(srcLen) bytes. Returns the compressed length.
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = dstOff;
+        
+        if (srcLen > MF_LIMIT) {
+            int[] table = HASH_TABLES.get();
+            java.util.Arrays.fill(table, srcOff);
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int searchLimit = srcEnd - MF_LIMIT;
+            int ip = srcOff + 1;
+            
+            while (ip < searchLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                
+                if (ref >= ip || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    // Step faster through data that keeps missing
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+                
+                if (ip - 2 < searchLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        
+        // Trailing literals
+        int literalLength = srcEnd - anchor;
+        op = writeLength(dst, op, literalLength, 0);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        return op + literalLength - dstOff;
+    }
+    
+    public byte[] decompress(byte[] src, int srcOff, int srcLen, int originalLength) throws IOException {
+        if (originalLength < 0 || originalLength > maxDecompressedLength(srcLen)) {
+            throw new ZipException("LZ4 block length does not match its compressed size");
+        }
+        byte[] dst = new byte[originalLength];
+        decompress(src, srcOff, srcLen, dst, 0, originalLength);
+        return dst;
+    }
+    
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        
+        while (true) {
+            if (ip >= srcEnd) {
+                throw new ZipException("Truncated LZ4 block");
+            }
+            int token = src[ip++] & 0xFF;
+            
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new ZipException("Truncated LZ4 block");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+                throw new ZipException("Corrupt LZ4 block");
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            
+            if (ip == srcEnd) {
+                break;
+            }
+            
+            if (ip + 2 > srcEnd) {
+                throw new ZipException("Truncated LZ4 block");
+            }
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op - dstOff) {
+                throw new ZipException("Corrupt LZ4 block");
+            }
+            
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new ZipException("Truncated LZ4 block");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - op) {
+                throw new ZipException("Corrupt LZ4 block");
+            }
+            
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                // Overlapping copy repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op + i] = dst[ref + i];
+                }
+            }
+            op += matchLength;
+        }
+        
+        if (op != dstEnd) {
+            throw new ZipException("LZ4 block length mismatch");
+        }
+    }
+    
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                                     byte[] dst, int op) {
+        int tokenPos = op;
+        op = writeLength(dst, op, literalLength, Math.min(matchLength - MIN_MATCH, 15));
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+        
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        
+        int remaining = matchLength - MIN_MATCH;
+        if ((dst[tokenPos] & 0x0F) == 15) {
+            remaining -= 15;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        }
+        return op;
+    }
+    
+    // Writes the token (literal nibble plus the given match nibble) and any literal length extension
+    private static int writeLength(byte[] dst, int op, int literalLength, int matchNibble) {
+        if (literalLength >= 15) {
+            dst[op++] = (byte) (0xF0 | matchNibble);
+            int remaining = literalLength - 15;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        } else {
+            dst[op++] = (byte) (literalLength << 4 | matchNibble);
+        }
+        return op;
+    }
+    
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+    
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8
+            | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+    }
+}
+
+// Codec Benchmark
+// Usage: java CodecBenchmark <corpus file or directory>...
+class CodecBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java CodecBenchmark <corpus file or directory>...");
+            System.exit(1);
+        }
+        
+        java.util.List<byte[]> corpus = new java.util.ArrayList<>();
+        InputModule inputModule = new InputModule();
+        for (String arg : args) {
+            for (File file : listFiles(new File(arg))) {
+                corpus.add(inputModule.readFileToBytes(file));
+            }
+        }
+        long corpusBytes = 0;
+        for (byte[] sample : corpus) {
+            corpusBytes += sample.length;
+        }
+        System.out.printf("Corpus: %d files, %d bytes%n", corpus.size(), corpusBytes);
+        System.out.printf("%-12s %12s %9s %14s %14s%n", "Codec", "Packed", "Ratio", "Pack MB/s", "Unpack MB/s");
+        
+        CompressionModule compressionModule = new CompressionModule();
+        for (CompressionModule.Codec codec : new CompressionModule.Codec[] {
+                CompressionModule.Codec.GZIP, CompressionModule.Codec.LZ4 }) {
+            long packedBytes = 0;
+            long packNanos = 0;
+            long unpackNanos = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                boolean measured = round >= WARMUP_ROUNDS;
+                packedBytes = 0;
+                for (byte[] sample : corpus) {
+                    long start = System.nanoTime();
+                    byte[] packed = compressionModule.packPayload(sample, codec, false);
+                    long middle = System.nanoTime();
+                    byte[] unpacked = compressionModule.unpackPayload(packed);
+                    long end = System.nanoTime();
+                    if (unpacked.length != sample.length) {
+                        throw new IllegalStateException(codec + " round trip failed");
+                    }
+                    packedBytes += packed.length;
+                    if (measured) {
+                        packNanos += middle - start;
+                        unpackNanos += end - middle;
+                    }
+                }
+            }
+            double megabytes = (double) corpusBytes * MEASURED_ROUNDS / (1024 * 1024);
+            System.out.printf("%-12s %12d %8.2f%% %14.1f %14.1f%n",
+                codec, packedBytes,
+                corpusBytes == 0 ? 0 : (double) packedBytes * 100 / corpusBytes,
+                megabytes / (packNanos / 1e9), megabytes / (unpackNanos / 1e9));
+        }
+    }
+    
+    private static java.util.List<File> listFiles(File root) {
+        java.util.List<File> files = new java.util.ArrayList<>();
+        if (root.isFile()) {
+            files.add(root);
+        } else {
+            File[] children = root.listFiles();
+            if (children != null) {
+                java.util.Arrays.sort(children);
+                for (File child : children) {
+                    files.addAll(listFiles(child));
+                }
+            }
+        }
+        return files;
+    }
+}
+
+// Module Benchmark
+// Usage: java ModuleBenchmark [--quick] [--filter regex] [--forks N] [--warmup-iterations N]
+//        [--iterations N] [--warmup-time ms] [--time ms] [--json file] [--baseline file]
+// Throughput benchmarks for every core module over generated inputs. This is
+// not JMH: the application is a single source file compiled with plain javac
+// and no dependencies, while JMH needs its annotation processor and runtime on
+// a build path. It follows JMH's method instead: every benchmark runs in its
+// own forked JVMs (--forks, 0 runs in-process), warmup and measurement
+// iterations are set separately, results go into a Blackhole so nothing is
+// optimized away, and the score has a 99.9% confidence interval. --json
+// writes JMH-format results for later runs to be compared against with --baseline.
+class ModuleBenchmark {
+    private static final int[] IMAGE_SIZES = { 256, 1024, 2048 };
+    private static final int[] DATA_SIZES = { 4 * 1024, 256 * 1024, 4 * 1024 * 1024 };
+    private static final String KEY = "benchmark-key";
+    private static final String USAGE =
+        "Usage: java ModuleBenchmark [--quick] [--filter regex] [--forks N] [--warmup-iterations N]\n"
+        + "       [--iterations N] [--warmup-time ms] [--time ms] [--json file] [--baseline file]";
+    // Prefixes the line a forked run reports its measurements on
+    private static final String FORK_RESULT = "# fork result:";
+    // Student's t at 99.9% two-sided for 1..9 degrees of freedom, as JMH reports
+    private static final double[] T_999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78 };
+    
+    enum Mode {
+        RAW(null, false),
+        GZIP(CompressionModule.Codec.GZIP, false),
+        LZ4(CompressionModule.Codec.LZ4, false),
+        GZIP_ENCRYPTED(CompressionModule.Codec.GZIP, true),
+        SCATTERED(null, false, true);
+        
+        final CompressionModule.Codec codec;
+        final boolean encrypted;
+        final boolean scattered;
+        
+        Mode(CompressionModule.Codec codec, boolean encrypted) {
+            this(codec, encrypted, false);
+        }
+        
+        Mode(CompressionModule.Codec codec, boolean encrypted, boolean scattered) {
+            this.codec = codec;
+            this.encrypted = encrypted;
+            this.scattered = scattered;
+        }
+    }
+    
+    interface Operation {
+        void run(Blackhole blackhole) throws Exception;
+    }
+    
+    // Builds the benchmark's inputs; only runs for benchmarks that are measured
+    interface Setup {
+        Operation prepare() throws Exception;
+    }
+    
+    /**
+     * Keeps results alive the way JMH's Blackhole does: the JIT cannot prove
+     * the volatile comparisons false, so the values feeding them have to be
+     * computed, yet they almost never take the store.
+     */
+    static final class Blackhole {
+        private volatile long long1 = 1;
+        private volatile long long2 = 2;
+        private volatile Object escaped;
+        private int random = (int) System.nanoTime();
+        private int mask = 1;
+        
+        void consume(long value) {
+            if (value == long1 & value == long2) {
+                escaped = value;
+            }
+        }
+        
+        void consume(Object value) {
+            random = random * 1664525 + 1013904223;
+            if ((random & mask) == 0) {
+                escaped = new java.lang.ref.WeakReference<>(value);
+                mask = (mask << 1) + 1;
+            }
+        }
+    }
+    
+    static class Options {
+        int forks = 1;
+        int warmupIterations = 3;
+        int iterations = 5;
+        long warmupNanos = 1_000_000_000L;
+        long iterationNanos = 1_000_000_000L;
+        
+        java.util.List<String> toArgs() {
+            return java.util.Arrays.asList("--warmup-iterations", String.valueOf(warmupIterations),
+                "--iterations", String.valueOf(iterations),
+                "--warmup-time", String.valueOf(warmupNanos / 1_000_000),
+                "--time", String.valueOf(iterationNanos / 1_000_000));
+        }
+    }
+    
+    static class Benchmark {
+        final String name;
+        final java.util.Map<String, String> params = new java.util.LinkedHashMap<>();
+        final long bytesPerOp;
+        final Setup setup;
+        
+        Benchmark(String name, long bytesPerOp, Setup setup, String... params) {
+            this.name = name;
+            this.bytesPerOp = bytesPerOp;
+            this.setup = setup;
+            for (int i = 0; i < params.length; i += 2) {
+                this.params.put(params[i], params[i + 1]);
+            }
+        }
+        
+        // For benchmarks whose inputs are already built
+        Benchmark(String name, long bytesPerOp, Operation operation, String... params) {
+            this(name, bytesPerOp, () -> operation, params);
+        }
+        
+        String id() {
+            return name + params;
+        }
+    }
+    
+    static class Score {
+        final Benchmark benchmark;
+        final Options options;
+        // One row of iteration scores per fork, as JMH's rawData
+        final double[][] rawData;
+        final double mean;
+        final double error;
+        
+        Score(Benchmark benchmark, Options options, double[][] rawData) {
+            this.benchmark = benchmark;
+            this.options = options;
+            this.rawData = rawData;
+            double sum = 0;
+            int n = 0;
+            for (double[] fork : rawData) {
+                for (double value : fork) {
+                    sum += value;
+                    n++;
+                }
+            }
+            this.mean = sum / n;
+            double squares = 0;
+            for (double[] fork : rawData) {
+                for (double value : fork) {
+                    squares += (value - mean) * (value - mean);
+                }
+            }
+            double t = n < 2 ? Double.NaN : n - 1 <= T_999.length ? T_999[n - 2] : 3.29;
+            this.error = n < 2 ? Double.NaN : t * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+        
+        double megabytesPerSecond() {
+            return mean * benchmark.bytesPerOp / (1024 * 1024);
+        }
+        
+        String toJson() {
+            StringBuilder params = new StringBuilder("{");
+            for (java.util.Map.Entry<String, String> param : benchmark.params.entrySet()) {
+                if (params.length() > 1) {
+                    params.append(',');
+                }
+                params.append(BatchEngine.jsonString(param.getKey())).append(':').append(BatchEngine.jsonString(param.getValue()));
+            }
+            params.append('}');
+            StringBuilder raw = new StringBuilder();
+            for (int f = 0; f < rawData.length; f++) {
+                raw.append(f == 0 ? "[" : ",[");
+                for (int i = 0; i < rawData[f].length; i++) {
+                    raw.append(i == 0 ? "" : ",").append(String.format(java.util.Locale.ROOT, "%.3f", rawData[f][i]));
+                }
+                raw.append(']');
+            }
+            return String.format(java.util.Locale.ROOT,
+                "{\"benchmark\":%s,\"mode\":\"thrpt\",\"threads\":1,\"forks\":%d,"
+                    + "\"warmupIterations\":%d,\"warmupTime\":\"%d ms\",\"measurementIterations\":%d,\"measurementTime\":\"%d ms\","
+                    + "\"params\":%s,"
+                    + "\"primaryMetric\":{\"score\":%.3f,\"scoreError\":%.3f,\"scoreUnit\":\"ops/s\",\"rawData\":[%s]},"
+                    + "\"secondaryMetrics\":{\"MB/s\":{\"score\":%.3f,\"scoreUnit\":\"MB/s\"}}}",
+                BatchEngine.jsonString("ModuleBenchmark." + benchmark.name), options.forks,
+                options.warmupIterations, options.warmupNanos / 1_000_000, options.iterations, options.iterationNanos / 1_000_000,
+                params, mean, Double.isNaN(error) ? 0 : error, raw, megabytesPerSecond());
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        java.util.regex.Pattern filter = null;
+        String jsonPath = null;
+        String baselinePath = null;
+        String forkedId = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--quick":
+                        options.warmupIterations = 1;
+                        options.iterations = 3;
+                        options.warmupNanos = 200_000_000L;
+                        options.iterationNanos = 200_000_000L;
+                        break;
+                    case "--filter":
+                        filter = java.util.regex.Pattern.compile(args[++i]);
+                        break;
+                    case "--forks":
+                        options.forks = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup-iterations":
+                        options.warmupIterations = Integer.parseInt(args[++i]);
+                        break;
+                    case "--iterations":
+                        options.iterations = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup-time":
+                        options.warmupNanos = Long.parseLong(args[++i]) * 1_000_000;
+                        break;
+                    case "--time":
+                        options.iterationNanos = Long.parseLong(args[++i]) * 1_000_000;
+                        break;
+                    case "--json":
+                        jsonPath = args[++i];
+                        break;
+                    case "--baseline":
+                        baselinePath = args[++i];
+                        break;
+                    case "--run-forked":
+                        forkedId = args[++i];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (options.forks < 0 || options.warmupIterations < 0 || options.iterations < 1
+                    || options.warmupNanos < 0 || options.iterationNanos < 1) {
+                throw new IllegalArgumentException("Forks and warmup must not be negative; iterations and time must be positive");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        
+        if (forkedId != null) {
+            runForked(forkedId, options);
+            return;
+        }
+        
+        java.util.Map<String, Double> baseline = baselinePath == null
+            ? java.util.Collections.<String, Double>emptyMap() : readBaseline(new File(baselinePath));
+        File workDirectory = java.nio.file.Files.createTempDirectory("module-benchmark").toFile();
+        java.util.List<Score> scores = new java.util.ArrayList<>();
+        try {
+            System.out.printf("%-44s %14s %12s %10s %9s%n", "Benchmark", "ops/s", "error", "MB/s", "vs base");
+            for (Benchmark benchmark : createBenchmarks(workDirectory)) {
+                if (filter != null && !filter.matcher(benchmark.id()).find()) {
+                    continue;
+                }
+                double[][] rawData = new double[Math.max(1, options.forks)][];
+                for (int fork = 0; fork < rawData.length; fork++) {
+                    rawData[fork] = options.forks == 0
+                        ? measure(benchmark.setup.prepare(), options)
+                        : fork(benchmark, options);
+                }
+                Score score = new Score(benchmark, options, rawData);
+                scores.add(score);
+                Double previous = baseline.get(benchmark.id());
+                System.out.printf("%-44s %14.2f %12.2f %10.1f %9s%n", benchmark.id(), score.mean, score.error,
+                    score.megabytesPerSecond(),
+                    previous == null ? "" : String.format("%+.1f%%", (score.mean - previous) * 100 / previous));
+            }
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+        
+        if (jsonPath != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(jsonPath), true, "UTF-8")) {
+                out.println("[");
+                for (int i = 0; i < scores.size(); i++) {
+                    out.println(scores.get(i).toJson() + (i < scores.size() - 1 ? "," : ""));
+                }
+                out.println("]");
+            }
+        }
+    }
+    
+    /**
+     * Runs one benchmark in a fresh JVM with the same class path and JVM
+     * arguments, so code compiled for one benchmark cannot skew the next.
+     */
+    private static double[] fork(Benchmark benchmark, Options options) throws IOException, InterruptedException {
+        java.util.List<String> command = new java.util.ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ModuleBenchmark.class.getName());
+        command.add("--run-forked");
+        command.add(benchmark.id());
+        command.addAll(options.toArgs());
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        double[] result = null;
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.startsWith(FORK_RESULT)) {
+                    String[] values = line.substring(FORK_RESULT.length()).trim().split(" ");
+                    result = new double[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        result[i] = Double.parseDouble(values[i]);
+                    }
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || result == null) {
+            throw new IOException("Forked run of " + benchmark.id() + " failed with exit code " + exitCode);
+        }
+        return result;
+    }
+    
+    private static void runForked(String id, Options options) throws Exception {
+        File workDirectory = java.nio.file.Files.createTempDirectory("module-benchmark").toFile();
+        try {
+            for (Benchmark benchmark : createBenchmarks(workDirectory)) {
+                if (benchmark.id().equals(id)) {
+                    StringBuilder line = new StringBuilder(FORK_RESULT);
+                    for (double value : measure(benchmark.setup.prepare(), options)) {
+                        line.append(' ').append(String.format(java.util.Locale.ROOT, "%.6f", value));
+                    }
+                    System.out.println(line);
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("No benchmark " + id);
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+    
+    // Warmup and measurement iterations each run the operation back to back for their time
+    static double[] measure(Operation operation, Options options) throws Exception {
+        Blackhole blackhole = new Blackhole();
+        for (int iteration = 0; iteration < options.warmupIterations; iteration++) {
+            iterate(operation, blackhole, options.warmupNanos);
+        }
+        double[] opsPerSecond = new double[options.iterations];
+        for (int iteration = 0; iteration < options.iterations; iteration++) {
+            opsPerSecond[iteration] = iterate(operation, blackhole, options.iterationNanos);
+        }
+        return opsPerSecond;
+    }
+    
+    private static double iterate(Operation operation, Blackhole blackhole, long nanos) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            operation.run(blackhole);
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return ops * 1e9 / elapsed;
+    }
+    
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    static java.util.List<Benchmark> createBenchmarks(File workDirectory) throws IOException {
+        SteganographyModule steganographyModule = new SteganographyModule();
+        EncryptionModule encryptionModule = new EncryptionModule();
+        CompressionModule compressionModule = new CompressionModule();
+        CRCModule crcModule = new CRCModule();
+        InputModule inputModule = new InputModule();
+        java.util.List<Benchmark> benchmarks = new java.util.ArrayList<>();
+        
+        for (int size : IMAGE_SIZES) {
+            String sizeParam = size + "x" + size;
+            // A quarter of the raw capacity leaves room for incompressible payloads
+            byte[] payload = syntheticText((size * size - 64) / 8 / 4, size);
+            for (Mode mode : Mode.values()) {
+                String modeParam = mode.name().toLowerCase();
+                String scatterKey = mode.scattered ? KEY : null;
+                benchmarks.add(new Benchmark("embed", payload.length, () -> {
+                    BufferedImage cover = syntheticImage(size, size);
+                    return blackhole -> {
+                        SteganographyModule.EmbedStream stream = steganographyModule.openEmbedStream(cover, scatterKey);
+                        try (OutputStream out = pipeline(stream, mode, payload.length, encryptionModule, compressionModule)) {
+                            out.write(payload);
+                        }
+                        blackhole.consume(stream.capacityBytes());
+                    };
+                }, "size", sizeParam, "mode", modeParam));
+                
+                benchmarks.add(new Benchmark("extract", payload.length, () -> {
+                    File stegoFile = new File(workDirectory, "stego-" + size + "-" + modeParam + ".png");
+                    SteganographyModule.EmbedStream stream =
+                        steganographyModule.openEmbedStream(syntheticImage(size, size), scatterKey);
+                    try (OutputStream out = pipeline(stream, mode, payload.length, encryptionModule, compressionModule)) {
+                        out.write(payload);
+                    }
+                    stream.writeTo(stegoFile);
+                    BufferedImage stego = ImageIO.read(stegoFile);
+                    return blackhole -> {
+                        InputStream in = steganographyModule.openExtractStream(stego, scatterKey, null);
+                        if (mode.encrypted) {
+                            in = encryptionModule.decryptingStream(in, KEY);
+                        }
+                        if (mode.codec != null) {
+                            in = compressionModule.unpackingStream(in);
+                        }
+                        try (InputStream payloadIn = in) {
+                            blackhole.consume(drain(payloadIn));
+                        }
+                    };
+                }, "size", sizeParam, "mode", modeParam));
+            }
+            
+            // Whole-file paths, where image decode and encode usually dominate
+            File coverFile = new File(workDirectory, "cover-" + size + ".png");
+            benchmarks.add(new Benchmark("embedFile", payload.length, () -> {
+                ImageIO.write(syntheticImage(size, size), "png", coverFile);
+                File outputFile = new File(workDirectory, "output-" + size + ".png");
+                return blackhole -> {
+                    steganographyModule.embedDataInImage(coverFile, payload, outputFile);
+                    blackhole.consume(outputFile.length());
+                };
+            }, "size", sizeParam));
+            benchmarks.add(new Benchmark("extractFile", payload.length, () -> {
+                ImageIO.write(syntheticImage(size, size), "png", coverFile);
+                File stegoFile = new File(workDirectory, "stego-" + size + "-file.png");
+                steganographyModule.embedDataInImage(coverFile, payload, stegoFile);
+                return blackhole -> blackhole.consume(steganographyModule.extractDataFromImage(stegoFile));
+            }, "size", sizeParam));
+        }
+        
+        for (int size : DATA_SIZES) {
+            String sizeParam = String.valueOf(size);
+            byte[] text = syntheticText(size, size);
+            byte[] random = syntheticRandom(size, size);
+            benchmarks.add(new Benchmark("encryptBytes", size,
+                blackhole -> blackhole.consume(encryptionModule.encryptBytes(text, KEY)), "size", sizeParam));
+            benchmarks.add(new Benchmark("decryptBytes", size, () -> {
+                byte[] encrypted = encryptionModule.encryptBytes(text, KEY);
+                return blackhole -> blackhole.consume(encryptionModule.decryptBytes(encrypted, KEY));
+            }, "size", sizeParam));
+            
+            for (String kind : new String[] { "text", "random" }) {
+                byte[] data = "text".equals(kind) ? text : random;
+                benchmarks.add(new Benchmark("compressData", size,
+                    blackhole -> blackhole.consume(compressionModule.compressData(data)), "size", sizeParam, "data", kind));
+                benchmarks.add(new Benchmark("decompressData", size, () -> {
+                    byte[] compressed = compressionModule.compressData(data);
+                    return blackhole -> blackhole.consume(compressionModule.decompressData(compressed));
+                }, "size", sizeParam, "data", kind));
+            }
+            
+            benchmarks.add(new Benchmark("generateCRC", size,
+                blackhole -> blackhole.consume(crcModule.generateCRC(text)), "size", sizeParam, "source", "bytes"));
+            benchmarks.add(new Benchmark("generateCRC", size, () -> {
+                File dataFile = new File(workDirectory, "data-" + size + ".bin");
+                inputModule.writeBytesToFile(text, dataFile);
+                return blackhole -> blackhole.consume(crcModule.generateCRC(dataFile));
+            }, "size", sizeParam, "source", "file"));
+        }
+        return benchmarks;
+    }
+    
+    private static OutputStream pipeline(OutputStream out, Mode mode, int length,
+                                         EncryptionModule encryptionModule, CompressionModule compressionModule) throws IOException {
+        if (mode.encrypted) {
+            out = encryptionModule.encryptingStream(out, KEY);
+        }
+        if (mode.codec != null) {
+            out = compressionModule.packingStream(out, mode.codec, length, false);
+        }
+        return out;
+    }
+    
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[InputModule.STREAM_CHUNK_SIZE];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            total += bytesRead;
+        }
+        return total;
+    }
+    
+    // Photo-like noise: neighbouring pixels are correlated, so PNG does not collapse it
+    static BufferedImage syntheticImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        java.util.Random random = new java.util.Random(width * 31L + height);
+        int rgb = 0x808080;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgb = (rgb + random.nextInt(0x0F0F0F)) & 0xFFFFFF;
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+    
+    // Word-like text with a skewed vocabulary, roughly as compressible as logs or prose
+    static byte[] syntheticText(int length, long seed) {
+        String[] words = { "the", "data", "monitor", "record", "value", "stream", "image", "pixel", "block", "index",
+            "user", "event", "2024", "error", "status", "ok", "file", "key", "sample", "payload" };
+        java.util.Random random = new java.util.Random(seed);
+        byte[] text = new byte[length];
+        int position = 0;
+        while (position < length) {
+            int index = (int) Math.min(words.length - 1, Math.abs(random.nextGaussian()) * words.length / 3);
+            byte[] word = (words[index] + (random.nextInt(12) == 0 ? "\n" : " ")).getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+            int count = Math.min(word.length, length - position);
+            System.arraycopy(word, 0, text, position, count);
+            position += count;
+        }
+        return text;
+    }
+    
+    static byte[] syntheticRandom(int length, long seed) {
+        byte[] data = new byte[length];
+        new java.util.Random(seed).nextBytes(data);
+        return data;
+    }
+    
+    // Reads back the scores of a previous --json run, keyed like Benchmark.id()
+    private static java.util.Map<String, Double> readBaseline(File file) throws IOException {
+        java.util.Map<String, Double> scores = new java.util.HashMap<>();
+        java.util.regex.Pattern result = java.util.regex.Pattern.compile(
+            "\"benchmark\":\"ModuleBenchmark\\.([^\"]+)\".*?\"params\":\\{([^}]*)\\}.*?\"score\":([-0-9.eE+]+)");
+        java.util.regex.Pattern param = java.util.regex.Pattern.compile("\"([^\"]*)\":\"([^\"]*)\"");
+        for (String line : java.nio.file.Files.readAllLines(file.toPath(), java.nio.charset.StandardCharsets.UTF_8)) {
+            java.util.regex.Matcher matcher = result.matcher(line);
+            if (!matcher.find()) {
+                continue;
+            }
+            java.util.Map<String, String> params = new java.util.LinkedHashMap<>();
+            java.util.regex.Matcher paramMatcher = param.matcher(matcher.group(2));
+            while (paramMatcher.find()) {
+                params.put(paramMatcher.group(1), paramMatcher.group(2));
+            }
+            scores.put(matcher.group(1) + params, Double.parseDouble(matcher.group(3)));
+        }
+        return scores;
+    }
+}
+
+// Steganography Module Class
+class SteganographyModule {
+    
+    // Images start with a 64-bit header: magic then payload length, both big-endian
+    private static final int HEADER_MAGIC = 0x534C5342; // "SLSB"
+    private static final int HEADER_BITS = 64;
+    // Same header in raster order, but the payload bits are scattered by a key
+    private static final int SCATTER_MAGIC = 0x534C534B; // "SLSK"
+    
+    public void embedDataInImage(File imageFile, byte[] data, File outputFile) throws IOException {
+        embedDataInImage(imageFile, data, outputFile, null);
+    }
+    
+    public void embedDataInImage(File imageFile, byte[] data, File outputFile, ProgressListener listener) throws IOException {
+        EmbedStream embedStream = openEmbedStream(imageFile);
+        ProgressTracker tracker = new ProgressTracker(listener, data.length);
+        try (OutputStream out = embedStream) {
+            for (int offset = 0; offset < data.length; offset += InputModule.STREAM_CHUNK_SIZE) {
+                int length = Math.min(InputModule.STREAM_CHUNK_SIZE, data.length - offset);
+                out.write(data, offset, length);
+                tracker.advance(length);
+            }
+        }
+        embedStream.writeTo(outputFile);
+        tracker.finish();
+    }
+    
+    /**
+     * Opens an RGB copy of the cover image as a sink for payload bytes. Bits
+     * go straight into the red-channel LSBs in raster order after the header;
+     * close() fills in the header and writeTo() saves the stego image.
+     */
+    public EmbedStream openEmbedStream(File imageFile) throws IOException {
+        return openEmbedStream(readImage(imageFile), null);
+    }
+    
+    // With a scatter key the payload bits go to pixels chosen by a PixelPermutation of that key
+    public EmbedStream openEmbedStream(File imageFile, String scatterKey) throws IOException {
+        return openEmbedStream(readImage(imageFile), scatterKey);
+    }
+    
+    public EmbedStream openEmbedStream(BufferedImage image) throws IOException {
+        return openEmbedStream(image, null);
+    }
+    
+    public EmbedStream openEmbedStream(BufferedImage image, String scatterKey) throws IOException {
+        if ((long) image.getWidth() * image.getHeight() < HEADER_BITS) {
+            throw new IOException("Image is too small to hold the data. Please select a larger image.");
+        }
+        BufferedImage outputImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        
+        // Copy original image
+        Graphics2D g2d = outputImage.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        
+        if (scatterKey != null && scatterKey.isEmpty()) {
+            throw new IllegalArgumentException("Scatter key must not be empty");
+        }
+        PixelPermutation order = scatterKey != null
+            ? new PixelPermutation(scatterKey, (long) image.getWidth() * image.getHeight() - HEADER_BITS) : null;
+        return new EmbedStream(outputImage, order);
+    }
+    
+    public static class EmbedStream extends OutputStream {
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final PixelPermutation order;
+        private final int[] targets;
+        private int pixelIndex = HEADER_BITS;
+        private boolean closed;
+        private final Metrics.Accumulator timing = Metrics.accumulate(Metrics.Stage.EMBED);
+        
+        EmbedStream(BufferedImage image, PixelPermutation order) {
+            this.image = image;
+            this.pixels = ((java.awt.image.DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.order = order;
+            this.targets = order != null ? new int[PixelPermutation.BATCH_BITS] : null;
+        }
+        
+        public long capacityBytes() {
+            return (pixels.length - (long) HEADER_BITS) / 8;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            writeBits(b & 0xFF, 8);
+            timing.add(0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if ((long) pixelIndex + len * 8L > pixels.length) {
+                throw new IOException("Image is too small to hold the data. Please select a larger image.");
+            }
+            long start = System.nanoTime();
+            if (order != null) {
+                writeScattered(b, off, len);
+            } else {
+                for (int i = off; i < off + len; i++) {
+                    writeBits(b[i] & 0xFF, 8);
+                }
+            }
+            timing.add(System.nanoTime() - start, len);
+        }
+        
+        // Targets are worked out a batch ahead, so the cache misses of the writes overlap
+        private void writeScattered(byte[] b, int off, int len) {
+            for (int chunk = off; chunk < off + len; chunk += PixelPermutation.BATCH_BITS / 8) {
+                int bytes = Math.min(PixelPermutation.BATCH_BITS / 8, off + len - chunk);
+                for (int k = 0; k < bytes * 8; k++) {
+                    targets[k] = HEADER_BITS + (int) order.index(pixelIndex + k - HEADER_BITS);
+                }
+                for (int i = 0; i < bytes; i++) {
+                    int value = b[chunk + i];
+                    for (int bit = 0; bit < 8; bit++) {
+                        int target = targets[i * 8 + bit];
+                        pixels[target] = (pixels[target] & ~0x10000) | (((value >>> (7 - bit)) & 1) << 16);
+                    }
+                }
+                pixelIndex += bytes * 8;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                int end = pixelIndex;
+                pixelIndex = 0;
+                writeBits(order != null ? SCATTER_MAGIC : HEADER_MAGIC, 32);
+                writeBits((end - HEADER_BITS) / 8, 32);
+                pixelIndex = end;
+                closed = true;
+                timing.close();
+            }
+        }
+        
+        public void writeTo(File outputFile) throws IOException {
+            if (!closed) {
+                throw new IllegalStateException("Embed stream must be closed before the image is written");
+            }
+            // Encoding fills one buffer while the previous one is written out;
+            // the memory cache keeps ImageIO from spooling through a temp file
+            try (Metrics.Sample sample = Metrics.start(Metrics.Stage.IMAGE_ENCODE);
+                 OutputStream out = new InputModule().openWriteBehind(outputFile);
+                 javax.imageio.stream.ImageOutputStream imageOut = new javax.imageio.stream.MemoryCacheImageOutputStream(out)) {
+                StageLimits.Stage cpu = StageLimits.cpu();
+                try {
+                    if (!ImageIO.write(image, getImageFormat(outputFile.getName()), imageOut)) {
+                        throw new IOException("No ImageIO writer for " + outputFile.getName());
+                    }
+                } finally {
+                    cpu.close();
+                }
+                sample.done(imageOut.getStreamPosition());
+            }
+        }
+        
+        private void writeBits(int value, int bitCount) throws IOException {
+            if (pixelIndex + bitCount > pixels.length) {
+                throw new IOException("Image is too small to hold the data. Please select a larger image.");
+            }
+            for (int shift = bitCount - 1; shift >= 0; shift--) {
+                int bit = (value >>> shift) & 1;
+                // The header itself always stays in raster order
+                int target = order == null || pixelIndex < HEADER_BITS
+                    ? pixelIndex : HEADER_BITS + (int) order.index(pixelIndex - HEADER_BITS);
+                pixels[target] = (pixels[target] & ~0x10000) | (bit << 16);
+                pixelIndex++;
+            }
+        }
+        
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Embed stream closed");
+            }
+        }
+    }
+    
+    public byte[] extractDataFromImage(File imageFile) throws IOException {
+        try (InputStream in = openExtractStream(imageFile)) {
+            byte[] extractedData = new byte[in.available()];
+            new DataInputStream(in).readFully(extractedData);
+            return extractedData;
+        }
+    }
+    
+    /**
+     * Opens the payload of a stego image as a stream. Bits are decoded a row
+     * at a time as they are read, so the payload never exists as a whole
+     * array. Images written before the length header was introduced are
+     * still read by scanning for the old end marker.
+     */
+    public InputStream openExtractStream(File imageFile) throws IOException {
+        return openExtractStream(imageFile, null);
+    }
+    
+    // The listener sees payload bytes decoded out of the pixels against the header length
+    public InputStream openExtractStream(File imageFile, ProgressListener listener) throws IOException {
+        return openExtractStream(readImage(imageFile), null, listener);
+    }
+    
+    // The scatter key is only used when the header says the payload was scattered
+    public InputStream openExtractStream(File imageFile, String scatterKey, ProgressListener listener) throws IOException {
+        return openExtractStream(readImage(imageFile), scatterKey, listener);
+    }
+    
+    public InputStream openExtractStream(BufferedImage image, ProgressListener listener) throws IOException {
+        return openExtractStream(image, null, listener);
+    }
+    
+    public InputStream openExtractStream(BufferedImage image, String scatterKey, ProgressListener listener) throws IOException {
+        long pixelCount = (long) image.getWidth() * image.getHeight();
+        if (pixelCount >= HEADER_BITS) {
+            ExtractStream header = new ExtractStream(image, 0, HEADER_BITS / 8, null);
+            int magic = header.readBits(32);
+            if (magic == HEADER_MAGIC || magic == SCATTER_MAGIC) {
+                int length = header.readBits(32);
+                if (length < 0 || length * 8L > pixelCount - HEADER_BITS) {
+                    throw new IOException("Embedded data length does not fit the image");
+                }
+                PixelPermutation order = null;
+                if (magic == SCATTER_MAGIC) {
+                    if (scatterKey == null || scatterKey.isEmpty()) {
+                        throw new IOException("The embedded data is scattered; enter the key it was embedded with");
+                    }
+                    order = new PixelPermutation(scatterKey, pixelCount - HEADER_BITS);
+                }
+                ExtractStream stream = new ExtractStream(image, HEADER_BITS, length, order);
+                stream.tracker = new ProgressTracker(listener, length);
+                stream.timing = Metrics.accumulate(Metrics.Stage.EXTRACT);
+                return stream;
+            }
+        }
+        byte[] legacy;
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.EXTRACT)) {
+            legacy = extractLegacy(image);
+            sample.done(legacy.length);
+        }
+        new ProgressTracker(listener, legacy.length).finish();
+        return new ByteArrayInputStream(legacy);
+    }
+    
+    public static class ExtractStream extends InputStream {
+        private final BufferedImage image;
+        private final int[] row;
+        private final PixelPermutation order;
+        private final long[] targets;
+        private final java.awt.image.Raster redBand;
+        private int rowY = -1;
+        private long pixelIndex;
+        private long remaining;
+        private ProgressTracker tracker;
+        private Metrics.Accumulator timing;
+        
+        ExtractStream(BufferedImage image, long startPixel, long length, PixelPermutation order) {
+            this.image = image;
+            this.row = order == null ? new int[image.getWidth()] : null;
+            this.order = order;
+            this.targets = order != null ? new long[PixelPermutation.BATCH_BITS] : null;
+            this.redBand = order != null ? redBand(image) : null;
+            this.pixelIndex = startPixel;
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            long start = System.nanoTime();
+            int b = readBits(8);
+            remaining--;
+            advance(1, System.nanoTime() - start);
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            long start = System.nanoTime();
+            int count = (int) Math.min(len, remaining);
+            if (order != null) {
+                readScattered(b, off, count);
+            } else {
+                for (int i = off; i < off + count; i++) {
+                    b[i] = (byte) readBits(8);
+                }
+            }
+            remaining -= count;
+            advance(count, System.nanoTime() - start);
+            return count;
+        }
+        
+        @Override
+        public void close() {
+            if (timing != null) {
+                timing.close();
+            }
+        }
+        
+        private void advance(int count, long nanos) {
+            if (timing != null) {
+                timing.add(nanos, count);
+                if (remaining == 0) {
+                    timing.close();
+                }
+            }
+            if (tracker != null) {
+                tracker.advance(count);
+                if (remaining == 0) {
+                    tracker.finish();
+                }
+            }
+        }
+        
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+        
+        int readBits(int bitCount) throws IOException {
+            if (order != null) {
+                return readScatteredBits(bitCount);
+            }
+            int value = 0;
+            for (int i = 0; i < bitCount; i++) {
+                int y = (int) (pixelIndex / row.length);
+                if (y != rowY) {
+                    if (y >= image.getHeight()) {
+                        throw new EOFException("Image ended before the embedded data");
+                    }
+                    // Pull one row at a time rather than a pixel per call
+                    image.getRGB(0, y, row.length, 1, row, 0, row.length);
+                    rowY = y;
+                }
+                value = (value << 1) | ((row[(int) (pixelIndex % row.length)] >>> 16) & 1);
+                pixelIndex++;
+            }
+            return value;
+        }
+        
+        // Scattered bits have no row locality, so each one is a single-pixel read
+        private int readScatteredBits(int bitCount) {
+            int value = 0;
+            for (int i = 0; i < bitCount; i++) {
+                value = (value << 1) | redLsb(HEADER_BITS + order.index(pixelIndex - HEADER_BITS));
+                pixelIndex++;
+            }
+            return value;
+        }
+        
+        // As in EmbedStream, a batch of positions is worked out before any pixel is read
+        private void readScattered(byte[] b, int off, int count) {
+            for (int chunk = off; chunk < off + count; chunk += PixelPermutation.BATCH_BITS / 8) {
+                int bytes = Math.min(PixelPermutation.BATCH_BITS / 8, off + count - chunk);
+                for (int k = 0; k < bytes * 8; k++) {
+                    targets[k] = HEADER_BITS + order.index(pixelIndex + k - HEADER_BITS);
+                }
+                for (int i = 0; i < bytes; i++) {
+                    int value = 0;
+                    for (int bit = 0; bit < 8; bit++) {
+                        value = (value << 1) | redLsb(targets[i * 8 + bit]);
+                    }
+                    b[chunk + i] = (byte) value;
+                }
+                pixelIndex += bytes * 8;
+            }
+        }
+        
+        private int redLsb(long pixel) {
+            int width = image.getWidth();
+            int x = (int) (pixel % width);
+            int y = (int) (pixel / width);
+            if (redBand != null) {
+                return redBand.getSample(x, y, 0) & 1;
+            }
+            return (image.getRGB(x, y) >>> 16) & 1;
+        }
+        
+        // Band 0 holds 8-bit red for these types, which skips the colour model in getRGB
+        private static java.awt.image.Raster redBand(BufferedImage image) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                case BufferedImage.TYPE_INT_BGR:
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    return image.getRaster();
+                default:
+                    return null;
+            }
+        }
+    }
+    
+    /**
+     * Keyed bijection over [0, size), evaluated one index at a time. It is
+     * a balanced Feistel network over the smallest even bit width that
+     * covers size; results that land past the end are fed back through
+     * (cycle walking), which takes fewer than four passes on average. No
+     * table is built, so memory stays constant whatever the image size, and
+     * any index maps independently of the others.
+     */
+    static final class PixelPermutation {
+        // Positions callers work out ahead of touching the pixels
+        static final int BATCH_BITS = 256;
+        private static final int ROUNDS = 6;
+        private final long size;
+        private final int halfBits;
+        private final long halfMask;
+        private final long[] roundKeys = new long[ROUNDS];
+        
+        PixelPermutation(String key, long size) {
+            this.size = size;
+            int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1)));
+            bits += bits & 1;
+            this.halfBits = bits / 2;
+            this.halfMask = (1L << halfBits) - 1;
+            
+            byte[] digest;
+            try {
+                digest = java.security.MessageDigest.getInstance("SHA-256")
+                    .digest(("scatter:" + key).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+            java.nio.ByteBuffer words = java.nio.ByteBuffer.wrap(digest);
+            for (int round = 0; round < ROUNDS; round++) {
+                roundKeys[round] = mix(words.getLong(8 * (round % 4)) + round * 0x9E3779B97F4A7C15L);
+            }
+        }
+        
+        long index(long position) {
+            long value = position;
+            do {
+                value = encrypt(value);
+            } while (value >= size);
+            return value;
+        }
+        
+        private long encrypt(long value) {
+            long left = value >>> halfBits;
+            long right = value & halfMask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long next = left ^ (mix(right ^ roundKeys[round]) & halfMask);
+                left = right;
+                right = next;
+            }
+            return (left << halfBits) | right;
+        }
+        
+        // SplitMix64 finalizer as the round function
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+    
+    // Pre-header format: payload bits terminated by a 16-bit end marker
+    private static byte[] extractLegacy(BufferedImage image) {
+        StringBuilder binaryData = new StringBuilder();
+        
+        // Extract LSB from red channel
+        outerLoop:
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                int red = (rgb >> 16) & 0xFF;
+                
+                // Extract LSB
+                int lsb = red & 1;
+                binaryData.append(lsb);
+                
+                // Check for end marker
+                if (binaryData.length() >= 16) {
+                    String lastBits = binaryData.substring(binaryData.length() - 16);
+                    if ("1111111111111110".equals(lastBits)) {
+                        binaryData.setLength(binaryData.length() - 16); // Remove end marker
+                        break outerLoop;
+                    }
+                }
+            }
+        }
+        
+        // Convert binary string to bytes
+        String binaryString = binaryData.toString();
+        byte[] extractedData = new byte[binaryString.length() / 8];
+        
+        for (int i = 0; i < extractedData.length; i++) {
+            String byteString = binaryString.substring(i * 8, (i + 1) * 8);
+            extractedData[i] = (byte) Integer.parseInt(byteString, 2);
+        }
+        
+        return extractedData;
+    }
+    
+    // Decoding overlaps with read-ahead of the rest of the file
+    private static BufferedImage readImage(File imageFile) throws IOException {
+        try (Metrics.Sample sample = Metrics.start(Metrics.Stage.IMAGE_DECODE);
+             InputStream in = new InputModule().openReadAhead(imageFile)) {
+            // ImageIO.read closes the image stream itself, unless no reader accepts it
+            javax.imageio.stream.ImageInputStream imageIn = new javax.imageio.stream.MemoryCacheImageInputStream(in);
+            BufferedImage image;
+            StageLimits.Stage cpu = StageLimits.cpu();
+            try {
+                image = ImageIO.read(imageIn);
+            } finally {
+                cpu.close();
+            }
+            if (image == null) {
+                imageIn.close();
+                throw new IOException("Unsupported image format: " + imageFile.getName());
+            }
+            sample.done(imageFile.length());
+            return image;
+        }
+    }
+    
+    private static String getImageFormat(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+            case "jpg":
+            case "jpeg":
+                return "jpg";
+            case "png":
+                return "png";
+            case "bmp":
+                return "bmp";
+            default:
+                return "png"; // Default to PNG
+        }
+    }
+    
+    public boolean canEmbedData(File imageFile, int dataSize) throws IOException {
+        BufferedImage image = readImage(imageFile);
+        int availableBits = image.getWidth() * image.getHeight();
+        long requiredBits = (dataSize * 8L) + HEADER_BITS; // Header + data bits
+        return availableBits >= requiredBits;
+    }
+}
+
+// Audit Log Class
+// Append-only JSON-lines journal of user-visible operations. Callers only
+// queue an event; a background appender formats queued events, writes them
+// as one batch and forces the batch to disk before taking the next (group
+// commit), so a record costs the caller an enqueue and costs the disk one
+// sync per batch. Segments roll over at SEGMENT_SIZE. With -Daudit.mmap=true
+// segments are preallocated and written through a memory mapping; a segment
+// left zero-padded by a crash is trimmed the next time the log is opened.
+class AuditLog implements AutoCloseable {
+    public static final String DIRECTORY_PROPERTY = "audit.dir";
+    public static final String MMAP_PROPERTY = "audit.mmap";
+    public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_DETAIL_LENGTH = 1024;
+    private static final Event SHUTDOWN = new Event(null, null, null, null, 0, 0, null);
+    
+    private static AuditLog instance;
+    
+    private final File directory;
+    private final boolean mapped;
+    private final java.util.concurrent.BlockingQueue<Event> queue;
+    private final Thread appender;
+    private final Object durableLock = new Object();
+    private long enqueued;
+    private long durable;
+    private volatile boolean closed;
+    private Journal journal;
+    private long sequence;
+    private int segmentNumber;
+    
+    static class Event {
+        final String operation;
+        final String subject;
+        final String output;
+        final String status;
+        final long bytes;
+        final long millis;
+        final String detail;
+        final long timeMillis = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        
+        Event(String operation, String subject, String output, String status, long bytes, long millis, String detail) {
+            this.operation = operation;
+            this.subject = subject;
+            this.output = output;
+            this.status = status;
+            this.bytes = bytes;
+            this.millis = millis;
+            this.detail = detail;
+        }
+    }
+    
+    /**
+     * The process-wide log, opened on first use in -Daudit.dir (default
+     * ~/.steganography/audit). Set audit.dir=off to disable auditing; a log
+     * that cannot be opened is reported once and also behaves as disabled.
+     */
+    public static synchronized AuditLog get() {
+        if (instance == null) {
+            String path = System.getProperty(DIRECTORY_PROPERTY);
+            File directory = path != null ? new File(path)
+                : new File(System.getProperty("user.home"), ".steganography" + File.separator + "audit");
+            AuditLog log = null;
+            if (!"off".equalsIgnoreCase(path)) {
+                try {
+                    log = new AuditLog(directory, Boolean.getBoolean(MMAP_PROPERTY));
+                    AuditLog opened = log;
+                    Runtime.getRuntime().addShutdownHook(new Thread(opened::close, "audit-shutdown"));
+                } catch (IOException e) {
+                    System.err.println("Audit log disabled: " + e.getMessage());
+                }
+            }
+            instance = log != null ? log : new AuditLog();
+        }
+        return instance;
+    }
+    
+    // Disabled log: records are dropped
+    private AuditLog() {
+        this.directory = null;
+        this.mapped = false;
+        this.queue = null;
+        this.appender = null;
+        this.closed = true;
+    }
+    
+    public AuditLog(File directory, boolean mapped) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.mapped = mapped;
+        this.queue = new java.util.concurrent.ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        trimSegments(directory);
+        this.journal = openSegment();
+        this.appender = new Thread(this::appendLoop, "audit-appender");
+        this.appender.setDaemon(true);
+        this.appender.start();
+    }
+    
+    public boolean isEnabled() {
+        return queue != null;
+    }
+    
+    /**
+     * Queues one record and returns at once unless the appender is a full
+     * queue behind, in which case the caller waits rather than lose records.
+     */
+    public void record(String operation, File subject, File output, String status, long bytes, long millis, String detail) {
+        if (closed) {
+            return;
+        }
+        if (detail != null && detail.length() > MAX_DETAIL_LENGTH) {
+            detail = detail.substring(0, MAX_DETAIL_LENGTH);
+        }
+        Event event = new Event(operation, subject != null ? subject.getAbsolutePath() : null,
+            output != null ? output.getAbsolutePath() : null, status, bytes, millis, detail);
+        synchronized (durableLock) {
+            enqueued++;
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Blocks until everything recorded so far has been forced to disk
+    public void sync() throws InterruptedIOException {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (durableLock) {
+            long target = enqueued;
+            while (durable < target && appender.isAlive()) {
+                try {
+                    durableLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the audit log");
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(SHUTDOWN);
+            appender.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void appendLoop() {
+        java.util.List<Event> batch = new java.util.ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            // Taken out before writing, so a failed write cannot skip a shutdown
+            running = !batch.removeIf(event -> event == SHUTDOWN);
+            try {
+                // Null after a segment failed to open; retried with each batch
+                if (journal == null) {
+                    journal = openSegment();
+                }
+                for (Event event : batch) {
+                    byte[] line = format(++sequence, event);
+                    if (!journal.fits(line.length)) {
+                        Journal full = journal;
+                        journal = null;
+                        full.close();
+                        journal = openSegment();
+                    }
+                    journal.write(line);
+                }
+                journal.force();
+            } catch (IOException e) {
+                System.err.println("Audit log write failed: " + e.getMessage());
+            }
+            // The whole batch is counted even if writing stopped part way, so sync() reports rather than hangs
+            synchronized (durableLock) {
+                durable += batch.size();
+                durableLock.notifyAll();
+            }
+            batch.clear();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Audit log close failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private static byte[] format(long sequence, Event event) {
+        String json = String.format(java.util.Locale.ROOT,
+            "{\"seq\":%d,\"time\":%s,\"user\":%s,\"thread\":%s,\"operation\":%s,\"subject\":%s,\"output\":%s,"
+                + "\"status\":%s,\"bytes\":%d,\"millis\":%d,\"detail\":%s}\n",
+            sequence, BatchEngine.jsonString(java.time.Instant.ofEpochMilli(event.timeMillis).toString()),
+            BatchEngine.jsonString(System.getProperty("user.name")), BatchEngine.jsonString(event.thread),
+            BatchEngine.jsonString(event.operation), BatchEngine.jsonString(event.subject),
+            BatchEngine.jsonString(event.output), BatchEngine.jsonString(event.status),
+            event.bytes, event.millis, BatchEngine.jsonString(event.detail));
+        return json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+    
+    private Journal openSegment() throws IOException {
+        File file;
+        do {
+            file = new File(directory, String.format("audit-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS-%2$04d.jsonl",
+                new java.util.Date(), segmentNumber++));
+        } while (file.exists());
+        return mapped ? new MappedJournal(file) : new ChannelJournal(file);
+    }
+    
+    /**
+     * A mapped segment is created at full size, so after a crash its tail is
+     * zeros. Cut each such segment back to the end of its last whole record.
+     */
+    private static void trimSegments(File directory) throws IOException {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("audit-") && name.endsWith(".jsonl"));
+        if (segments == null) {
+            return;
+        }
+        for (File segment : segments) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw");
+                 java.nio.channels.FileLock lock = file.getChannel().tryLock()) {
+                long length = file.length();
+                // Locked means another process is still writing it
+                if (lock == null || length == 0) {
+                    continue;
+                }
+                file.seek(length - 1);
+                if (file.read() != 0) {
+                    continue;
+                }
+                long end = length;
+                byte[] block = new byte[64 * 1024];
+                scan:
+                while (end > 0) {
+                    int count = (int) Math.min(block.length, end);
+                    file.seek(end - count);
+                    file.readFully(block, 0, count);
+                    for (int i = count - 1; i >= 0; i--) {
+                        if (block[i] == '\n') {
+                            end = end - count + i + 1;
+                            break scan;
+                        }
+                    }
+                    end -= count;
+                }
+                file.setLength(end);
+            } catch (java.nio.channels.OverlappingFileLockException e) {
+                // Still open in this process
+            }
+        }
+    }
+    
+    private interface Journal {
+        boolean fits(int length);
+        
+        void write(byte[] record) throws IOException;
+        
+        void force() throws IOException;
+        
+        void close() throws IOException;
+    }
+    
+    private static class ChannelJournal implements Journal {
+        private final java.nio.channels.FileChannel channel;
+        private long size;
+        
+        ChannelJournal(File file) throws IOException {
+            channel = java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.CREATE,
+                java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.APPEND);
+            size = channel.size();
+        }
+        
+        @Override
+        public boolean fits(int length) {
+            // An oversized record still goes into an empty segment
+            return size == 0 || size + length <= SEGMENT_SIZE;
+        }
+        
+        @Override
+        public void write(byte[] record) throws IOException {
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+        }
+        
+        @Override
+        public void force() throws IOException {
+            channel.force(false);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+    
+    private static class MappedJournal implements Journal {
+        private final RandomAccessFile file;
+        private final java.nio.MappedByteBuffer buffer;
+        
+        MappedJournal(File path) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            // Held until close, so another process's trimSegments() leaves this one alone
+            file.getChannel().lock();
+            file.setLength(SEGMENT_SIZE);
+            buffer = file.getChannel().map(java.nio.channels.FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        
+        @Override
+        public boolean fits(int length) {
+            return length <= buffer.remaining();
+        }
+        
+        @Override
+        public void write(byte[] record) throws IOException {
+            if (record.length > buffer.remaining()) {
+                throw new IOException("Audit record larger than a segment");
+            }
+            buffer.put(record);
+        }
+        
+        @Override
+        public void force() {
+            buffer.force();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            buffer.force();
+            try {
+                // Drop the unused preallocated tail; some platforms refuse while mapped
+                file.setLength(buffer.position());
+            } catch (IOException e) {
+                // trimSegments() cuts it on the next start instead
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
+
+// Stage Limits Class
+// Caps how many batch jobs are in a CPU-heavy stage at once and how many
+// hold files open. BatchEngine binds a Job to the thread running each job and
+// the modules mark their stages; with nothing bound (the GUI) a mark costs one
+// ThreadLocal lookup. A job lets go of its CPU permit while it waits on the
+// disk and before it waits for a file permit, so a job waiting for a CPU
+// permit never blocks one that holds it.
+class StageLimits {
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+    private static final Stage NONE = () -> { };
+    
+    private final java.util.concurrent.Semaphore cpuPermits;
+    private final java.util.concurrent.Semaphore ioPermits;
+    
+    // A limit of 0 leaves that kind of stage unbounded
+    StageLimits(int cpuLimit, int ioLimit) {
+        this.cpuPermits = cpuLimit > 0 ? new java.util.concurrent.Semaphore(cpuLimit, true) : null;
+        this.ioPermits = ioLimit > 0 ? new java.util.concurrent.Semaphore(ioLimit, true) : null;
+    }
+    
+    public interface Stage extends AutoCloseable {
+        @Override
+        void close();
+    }
+    
+    // Binds a job to the calling thread until the job is closed
+    Job bind() {
+        Job job = new Job();
+        CURRENT.set(job);
+        return job;
+    }
+    
+    // Deflate, inflate, LZ4 or pixel coding; nested stages share one permit
+    static Stage cpu() throws InterruptedIOException {
+        Job job = CURRENT.get();
+        return job == null ? NONE : job.enterCpu();
+    }
+    
+    // Held while a file is open; a job takes one permit however many files it has open
+    static Stage openFile() throws InterruptedIOException {
+        Job job = CURRENT.get();
+        return job == null ? NONE : job.openFile();
+    }
+    
+    // Wraps a blocking wait on the disk
+    static Stage ioWait() {
+        Job job = CURRENT.get();
+        return job == null ? NONE : job.suspendCpu();
+    }
+    
+    // Each call is a CPU stage: for pipelines that compress, encrypt or code pixels in memory
+    static OutputStream cpuBound(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                Stage cpu = cpu();
+                try {
+                    out.write(b);
+                } finally {
+                    cpu.close();
+                }
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Stage cpu = cpu();
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    cpu.close();
+                }
+            }
+            
+            @Override
+            public void close() throws IOException {
+                Stage cpu = cpu();
+                try {
+                    out.close();
+                } finally {
+                    cpu.close();
+                }
+            }
+        };
+    }
+    
+    static InputStream cpuBound(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                Stage cpu = cpu();
+                try {
+                    return in.read();
+                } finally {
+                    cpu.close();
+                }
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Stage cpu = cpu();
+                try {
+                    return in.read(b, off, len);
+                } finally {
+                    cpu.close();
+                }
+            }
+        };
+    }
+    
+    final class Job implements AutoCloseable {
+        // CPU state is only touched by the job's own thread
+        private int cpuDepth;
+        private boolean cpuHeld;
+        // Streams can be closed from another thread
+        private int openFiles;
+        private long waitNanos;
+        
+        Stage enterCpu() throws InterruptedIOException {
+            if (!cpuHeld) {
+                waitNanos += acquire(cpuPermits);
+                cpuHeld = true;
+            }
+            cpuDepth++;
+            return () -> {
+                if (--cpuDepth == 0 && cpuHeld) {
+                    release(cpuPermits);
+                    cpuHeld = false;
+                }
+            };
+        }
+        
+        Stage suspendCpu() {
+            if (!cpuHeld) {
+                return NONE;
+            }
+            release(cpuPermits);
+            cpuHeld = false;
+            return () -> {
+                if (cpuDepth > 0 && !cpuHeld) {
+                    long start = System.nanoTime();
+                    if (cpuPermits != null) {
+                        cpuPermits.acquireUninterruptibly();
+                    }
+                    waitNanos += System.nanoTime() - start;
+                    cpuHeld = true;
+                }
+            };
+        }
+        
+        Stage openFile() throws InterruptedIOException {
+            synchronized (this) {
+                if (openFiles > 0) {
+                    openFiles++;
+                    return fileStage();
+                }
+            }
+            long waited;
+            Stage suspended = suspendCpu();
+            try {
+                waited = acquire(ioPermits);
+            } finally {
+                suspended.close();
+            }
+            waitNanos += waited;
+            synchronized (this) {
+                openFiles++;
+            }
+            return fileStage();
+        }
+        
+        private Stage fileStage() {
+            java.util.concurrent.atomic.AtomicBoolean closed = new java.util.concurrent.atomic.AtomicBoolean();
+            return () -> {
+                if (closed.compareAndSet(false, true)) {
+                    closeFile();
+                }
+            };
+        }
+        
+        private void closeFile() {
+            synchronized (this) {
+                if (openFiles == 0 || --openFiles > 0) {
+                    return;
+                }
+            }
+            release(ioPermits);
+        }
+        
+        // Time spent waiting for permits so far
+        long waitNanos() {
+            return waitNanos;
+        }
+        
+        // Unbinds the job; permits it still holds, such as for a stream left open, go back
+        @Override
+        public void close() {
+            CURRENT.remove();
+            if (cpuHeld) {
+                release(cpuPermits);
+                cpuHeld = false;
+            }
+            cpuDepth = 0;
+            synchronized (this) {
+                if (openFiles == 0) {
+                    return;
+                }
+                openFiles = 0;
+            }
+            release(ioPermits);
+        }
+    }
+    
+    private static long acquire(java.util.concurrent.Semaphore permits) throws InterruptedIOException {
+        if (permits == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch interrupted");
+        }
+        return System.nanoTime() - start;
+    }
+    
+    private static void release(java.util.concurrent.Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
+
+// Batch Engine Class
+// Runs a manifest of jobs through the modules without any Swing. One job per
+// line: an operation followed by key=value options, e.g.
+//   embed data=notes.txt image=cover.png output=stego.png codec=gzip key=secret scatter
+//   extract image=stego.png output=notes.txt key=secret decompress
+//   compress input=big.log output=big.log.gz level=9 threads=4
+//   decompress input=big.log.gz output=big.log
+//   checksum input=big.log expect=1a2b3c4d
+//   encrypt input=big.log output=big.log.enc key=secret
+// Results are written as JSON lines in manifest order, then a summary line.
+// With --virtual every job gets its own virtual thread (JDK 21+); StageLimits
+// then caps how many jobs are coding at once and how many hold files open.
+class BatchEngine {
+    public static final String USAGE =
+        "Usage: java SteganographyApplication --batch <manifest|-> [--threads N] [--results file]\n"
+        + "       [--virtual] [--cpu-limit N] [--io-limit N] [--metrics-interval N]";
+    public static final int DEFAULT_IO_LIMIT = 256;
+    
+    public enum Operation { EMBED, EXTRACT, COMPRESS, DECOMPRESS, CHECKSUM, ENCRYPT, DECRYPT }
+    
+    private final SteganographyModule steganographyModule = new SteganographyModule();
+    private final CompressionModule compressionModule;
+    private final InputModule inputModule = new InputModule();
+    private final StageLimits limits;
+    
+    public BatchEngine(CompressionModule compressionModule) {
+        this(compressionModule, 0, 0);
+    }
+    
+    /**
+     * A limit of 0 leaves that kind of stage unbounded, which is right when
+     * the executor itself has a fixed number of threads. The CPU limit counts
+     * jobs that are coding images or running a codec, the I/O limit jobs that
+     * have a file open; see StageLimits.
+     */
+    public BatchEngine(CompressionModule compressionModule, int cpuLimit, int ioLimit) {
+        this.compressionModule = compressionModule;
+        this.limits = new StageLimits(cpuLimit, ioLimit);
+    }
+    
+    /**
+     * Entry point for --batch. Returns the process exit code: 0 when every
+     * job succeeded, 1 when any failed, 2 for a bad command line or manifest.
+     */
+    public static int run(String[] args, File dictionaryDirectory) {
+        String manifest = null;
+        String resultsPath = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        int cpuLimit = -1;
+        int ioLimit = -1;
+        long metricsInterval = Long.getLong(SteganographyApplication.METRICS_DUMP_PROPERTY, 0);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--batch":
+                        manifest = args[++i];
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--results":
+                        resultsPath = args[++i];
+                        break;
+                    case "--virtual":
+                        virtual = true;
+                        break;
+                    case "--cpu-limit":
+                        cpuLimit = Integer.parseInt(args[++i]);
+                        break;
+                    case "--io-limit":
+                        ioLimit = Integer.parseInt(args[++i]);
+                        break;
+                    case "--metrics-interval":
+                        metricsInterval = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (manifest == null || threads < 1) {
+                throw new IllegalArgumentException("A manifest and a positive thread count are required");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        
+        java.util.List<Job> jobs;
+        try (Reader reader = "-".equals(manifest)
+                ? new InputStreamReader(System.in, "UTF-8")
+                : new InputStreamReader(new FileInputStream(manifest), "UTF-8")) {
+            jobs = parseManifest(reader);
+        } catch (IOException e) {
+            System.err.println("Could not read manifest: " + e.getMessage());
+            return 2;
+        }
+        
+        CompressionModule compressionModule = new CompressionModule();
+        try {
+            compressionModule.loadDictionaries(dictionaryDirectory);
+        } catch (IOException e) {
+            System.err.println("Could not load compression dictionaries: " + e.getMessage());
+        }
+        
+        java.util.concurrent.ExecutorService executor = virtual ? newVirtualThreadExecutor() : null;
+        if (virtual && executor == null) {
+            System.err.println("Virtual threads need JDK 21 or newer; using " + threads + " platform threads");
+            virtual = false;
+        }
+        if (!virtual) {
+            executor = newWorkerPool(threads);
+        }
+        // Virtual threads are unbounded, so the semaphores do the bounding by default
+        int processors = Runtime.getRuntime().availableProcessors();
+        BatchEngine engine = new BatchEngine(compressionModule,
+            cpuLimit >= 0 ? cpuLimit : virtual ? processors : 0,
+            ioLimit >= 0 ? ioLimit : virtual ? DEFAULT_IO_LIMIT : 0);
+        
+        // Metrics go to stderr so stdout stays pure JSON lines
+        java.util.concurrent.ScheduledFuture<?> metricsDump = metricsInterval > 0
+            ? Metrics.startPeriodicDump(metricsInterval, System.err::print) : null;
+        try (PrintStream out = resultsPath == null ? System.out
+                : new PrintStream(new FileOutputStream(resultsPath), true, "UTF-8")) {
+            BatchSummary summary = engine.runJobs(jobs, executor,
+                virtual ? "virtual" : "platform-" + threads, out);
+            return summary.failed == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Could not write results: " + e.getMessage());
+            return 2;
+        } finally {
+            if (metricsDump != null) {
+                metricsDump.cancel(false);
+                System.err.print(Metrics.dump());
+            }
+        }
+    }
+    
+    /**
+     * Runs every job on a pool of the given size and prints each result as
+     * soon as it and all earlier jobs have finished, so output order matches
+     * the manifest. A job that reads a file written by an earlier job waits
+     * for that job, and is skipped if it failed. A job that writes a file
+     * waits for every earlier job that reads or writes it. A job whose input
+     * neither exists nor is written by an earlier job fails without running.
+     */
+    public BatchSummary runJobs(java.util.List<Job> jobs, java.util.concurrent.ExecutorService pool,
+                                String executorName, PrintStream out) {
+        return runJobs(jobs, pool, executorName, out, null);
+    }
+    
+    // resultListener, when given, also sees each result in manifest order
+    public BatchSummary runJobs(java.util.List<Job> jobs, java.util.concurrent.ExecutorService pool,
+                                String executorName, PrintStream out,
+                                java.util.function.Consumer<JobResult> resultListener) {
+        long start = System.nanoTime();
+        try {
+            java.util.List<Dependencies> plan = plan(jobs);
+            java.util.List<java.util.concurrent.CompletableFuture<JobResult>> futures = new java.util.ArrayList<>();
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                Dependencies dependencies = plan.get(i);
+                java.util.concurrent.CompletableFuture<JobResult> future;
+                if (dependencies.missingInput != null) {
+                    future = java.util.concurrent.CompletableFuture.completedFuture(
+                        new JobResult(job, false, 0, 0, 0, 0, "Missing input: " + dependencies.missingInput));
+                } else {
+                    java.util.List<java.util.concurrent.CompletableFuture<JobResult>> producers = new java.util.ArrayList<>();
+                    for (int producer : dependencies.producers) {
+                        producers.add(futures.get(producer));
+                    }
+                    java.util.concurrent.CompletableFuture<?>[] waits = new java.util.concurrent.CompletableFuture<?>[dependencies.waitsFor.size()];
+                    for (int w = 0; w < waits.length; w++) {
+                        waits[w] = futures.get(dependencies.waitsFor.get(w));
+                    }
+                    future = java.util.concurrent.CompletableFuture.allOf(waits)
+                        .thenApplyAsync(ignored -> {
+                            for (java.util.concurrent.CompletableFuture<JobResult> producer : producers) {
+                                JobResult failed = producer.join();
+                                if (!failed.success) {
+                                    return new JobResult(job, false, 0, 0, 0, 0, "Skipped: job " + failed.job.number + " failed");
+                                }
+                            }
+                            return execute(job);
+                        }, pool);
+                }
+                futures.add(future);
+            }
+            
+            int succeeded = 0;
+            long inputBytes = 0;
+            long outputBytes = 0;
+            long[] latencies = new long[futures.size()];
+            for (int i = 0; i < futures.size(); i++) {
+                JobResult result = awaitResult(futures.get(i));
+                out.println(result.toJson());
+                if (resultListener != null) {
+                    resultListener.accept(result);
+                }
+                if (result.success) {
+                    succeeded++;
+                }
+                inputBytes += result.inputBytes;
+                outputBytes += result.outputBytes;
+                latencies[i] = result.elapsedNanos;
+            }
+            BatchSummary summary = new BatchSummary(jobs.size(), succeeded, inputBytes, outputBytes,
+                System.nanoTime() - start, executorName, latencies);
+            out.println(summary.toJson());
+            out.flush();
+            return summary;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    // What one job waits for, as indices into the job list; see plan()
+    static class Dependencies {
+        // Earlier writers of its inputs, which have to succeed for it to run
+        final java.util.List<Integer> producers = new java.util.ArrayList<>();
+        // The producers, plus every earlier job that reads or writes its output
+        final java.util.List<Integer> waitsFor = new java.util.ArrayList<>();
+        // An input that neither exists nor is written by an earlier job
+        String missingInput;
+    }
+    
+    /**
+     * Works out the ordering runJobs enforces from the files each job reads
+     * and writes: read-after-write makes the writer a producer, while
+     * write-after-read and write-after-write only wait for the earlier jobs
+     * to be out of the way.
+     */
+    static java.util.List<Dependencies> plan(java.util.List<Job> jobs) {
+        java.util.List<Dependencies> plan = new java.util.ArrayList<>();
+        // Per path: the last job to write it, and the jobs that have read it since
+        java.util.Map<String, Integer> writers = new java.util.HashMap<>();
+        java.util.Map<String, java.util.List<Integer>> readers = new java.util.HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            Dependencies dependencies = new Dependencies();
+            for (File input : job.inputFiles()) {
+                Integer producer = writers.get(input.getAbsolutePath());
+                if (producer != null) {
+                    dependencies.producers.add(producer);
+                } else if (dependencies.missingInput == null && !input.exists()) {
+                    dependencies.missingInput = input.getPath();
+                }
+            }
+            dependencies.waitsFor.addAll(dependencies.producers);
+            String output = job.outputFile() != null ? job.outputFile().getAbsolutePath() : null;
+            if (output != null) {
+                if (writers.containsKey(output)) {
+                    dependencies.waitsFor.add(writers.get(output));
+                }
+                dependencies.waitsFor.addAll(readers.getOrDefault(output, java.util.Collections.emptyList()));
+            }
+            plan.add(dependencies);
+            
+            for (File input : job.inputFiles()) {
+                readers.computeIfAbsent(input.getAbsolutePath(), path -> new java.util.ArrayList<>()).add(i);
+            }
+            if (output != null) {
+                writers.put(output, i);
+                readers.remove(output);
+            }
+        }
+        return plan;
+    }
+    
+    static java.util.concurrent.ExecutorService newWorkerPool(int threads) {
+        java.util.concurrent.atomic.AtomicInteger threadNumber = new java.util.concurrent.atomic.AtomicInteger();
+        return java.util.concurrent.Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * One virtual thread per task, or null before JDK 21. Looked up
+     * reflectively so the application still builds and runs on JDK 8.
+     */
+    static java.util.concurrent.ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (java.util.concurrent.ExecutorService) java.util.concurrent.Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    private static JobResult awaitResult(java.util.concurrent.Future<JobResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch interrupted", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            // execute() reports its own failures, so this is a bug
+            throw new IllegalStateException("Batch job crashed", e.getCause());
+        }
+    }
+    
+    // Permits are taken stage by stage inside the modules; waitNanos is the time spent waiting for them
+    public JobResult execute(Job job) {
+        long start = System.nanoTime();
+        StageLimits.Job stages = limits.bind();
+        try {
+            String detail = perform(job);
+            File output = job.outputFile();
+            return audit(new JobResult(job, true, job.inputFile().length(),
+                output != null ? output.length() : 0, System.nanoTime() - start, stages.waitNanos(), detail));
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return audit(new JobResult(job, false, job.inputFile().length(), 0, System.nanoTime() - start,
+                stages.waitNanos(), message));
+        } finally {
+            stages.close();
+        }
+    }
+    
+    private static JobResult audit(JobResult result) {
+        AuditLog.get().record(result.job.operation.name().toLowerCase(), result.job.inputFile(), result.job.outputFile(),
+            result.success ? "ok" : "failed", result.inputBytes, result.elapsedNanos / 1_000_000, result.detail);
+        return result;
+    }
+    
+    private String perform(Job job) throws IOException {
+        switch (job.operation) {
+            case EMBED:
+                return embed(job);
+            case EXTRACT:
+                return extract(job);
+            case COMPRESS:
+                return compress(job);
+            case DECOMPRESS:
+                return decompress(job);
+            case ENCRYPT:
+            case DECRYPT:
+                return encrypt(job);
+            default:
+                return checksum(job);
+        }
+    }
+    
+    private String embed(Job job) throws IOException {
+        File dataFile = job.file("data");
+        CompressionModule.Codec codec = parseCodec(job.option("codec", "none"));
+        String key = job.option("key", null);
+        boolean scatter = Boolean.parseBoolean(job.option("scatter", "false"));
+        if (scatter && key == null) {
+            throw new IllegalArgumentException("scatter needs key=");
+        }
+        
+        // Same chain as EmbedDialog: file -> compress -> encrypt -> LSB writer
+        SteganographyModule.EmbedStream embedStream = steganographyModule.openEmbedStream(job.file("image"), scatter ? key : null);
+        OutputStream pipeline = embedStream;
+        if (key != null) {
+            pipeline = new EncryptionModule().encryptingStream(pipeline, key);
+        }
+        if (codec != CompressionModule.Codec.STORED) {
+            pipeline = compressionModule.packingStream(pipeline, codec, dataFile, true);
+        }
+        // Each chunk is compressed, encrypted and coded into pixels under a CPU permit; file reads are not
+        try (OutputStream out = StageLimits.cpuBound(pipeline)) {
+            inputModule.transfer(dataFile, out);
+        }
+        embedStream.writeTo(job.outputFile());
+        return "codec=" + codec.name().toLowerCase() + (key != null ? ", encrypted" : "") + (scatter ? ", scattered" : "");
+    }
+    
+    private String extract(Job job) throws IOException {
+        String key = job.option("key", null);
+        boolean decompress = Boolean.parseBoolean(job.option("decompress", "false"));
+        
+        InputStream pipeline = steganographyModule.openExtractStream(job.file("image"), key, null);
+        try {
+            if (key != null) {
+                pipeline = new EncryptionModule().decryptingStream(pipeline, key);
+            }
+            if (decompress) {
+                pipeline = compressionModule.unpackingStream(pipeline);
+            }
+        } catch (IOException | RuntimeException e) {
+            pipeline.close();
+            throw e;
+        }
+        try (InputStream in = StageLimits.cpuBound(pipeline)) {
+            return "extracted=" + inputModule.transfer(in, job.outputFile());
+        }
+    }
+    
+    private String compress(Job job) throws IOException {
+        File input = job.file("input");
+        File output = job.outputFile();
+        CompressionModule.Codec codec = parseCodec(job.option("codec", "gzip"));
+        int threads = Integer.parseInt(job.option("threads", "1"));
+        CompressionModule.CompressionConfig config = compressionModule.getConfig();
+        if (job.options.containsKey("level")) {
+            config = config.withLevel(Integer.parseInt(job.options.get("level")));
+        }
+        
+        if (codec != CompressionModule.Codec.LZ4 && codec != CompressionModule.Codec.GZIP) {
+            throw new IllegalArgumentException("compress supports codec=gzip or codec=lz4");
+        }
+        
+        // The codec runs under a CPU permit, which the streams give back while they wait on the disk
+        CompressionModule.CompressionResult result;
+        StageLimits.Stage cpu = StageLimits.cpu();
+        try {
+            if (codec == CompressionModule.Codec.LZ4) {
+                result = compressionModule.compressFileFast(input, output, progress -> { });
+            } else if (Boolean.parseBoolean(job.option("seekable", "false"))) {
+                result = compressionModule.compressFileIndexed(input, output, config, threads, progress -> { });
+            } else if (threads > 1) {
+                result = compressionModule.compressFileParallel(input, output, config, threads, progress -> { });
+            } else {
+                result = compressionModule.compressFile(input, output, config, progress -> { });
+            }
+        } finally {
+            cpu.close();
+        }
+        return String.format(java.util.Locale.ROOT, "ratio=%.2f%%", result.compressionRatio);
+    }
+    
+    private String decompress(Job job) throws IOException {
+        File input = job.file("input");
+        File output = job.outputFile();
+        if (job.options.containsKey("offset") || job.options.containsKey("length")) {
+            long offset = Long.parseLong(job.option("offset", "0"));
+            // Without length the range runs to the end of the archive
+            String lengthOption = job.options.get("length");
+            long length = lengthOption != null ? Long.parseLong(lengthOption) : CompressionModule.RANGE_TO_END;
+            if (lengthOption != null && length <= 0) {
+                throw new IllegalArgumentException("length must be positive; leave it out to read to the end of the archive");
+            }
+            if (!compressionModule.isIndexedFile(input)) {
+                throw new IllegalArgumentException("Range decompression needs a seekable archive");
+            }
+            StageLimits.Stage fileStage = StageLimits.openFile();
+            StageLimits.Stage cpu = null;
+            try (java.nio.channels.FileChannel channel = inputModule.openWriteChannel(output)) {
+                cpu = StageLimits.cpu();
+                return "range=" + compressionModule.decompressRange(input, offset, length, channel);
+            } finally {
+                if (cpu != null) {
+                    cpu.close();
+                }
+                fileStage.close();
+            }
+        }
+        StageLimits.Stage cpu = StageLimits.cpu();
+        try {
+            compressionModule.decompressFile(input, output, progress -> { });
+        } finally {
+            cpu.close();
+        }
+        return "decompressed";
+    }
+    
+    // Mapped windows in, direct buffers out: files of any size never touch the heap
+    private String encrypt(Job job) throws IOException {
+        EncryptionModule encryptionModule = new EncryptionModule();
+        String key = job.option("key", null);
+        StageLimits.Stage cpu = StageLimits.cpu();
+        try {
+            long bytes = job.operation == Operation.ENCRYPT
+                ? encryptionModule.encryptFile(job.file("input"), job.outputFile(), key)
+                : encryptionModule.decryptFile(job.file("input"), job.outputFile(), key);
+            return (job.operation == Operation.ENCRYPT ? "encrypted=" : "decrypted=") + bytes;
+        } finally {
+            cpu.close();
+        }
+    }
+    
+    private String checksum(Job job) throws IOException {
+        // CRCModule keeps one CRC32 per instance, so every job gets its own
+        long crc = new CRCModule().generateCRC(job.file("input"));
+        String hex = String.format("%08x", crc);
+        String expected = job.option("expect", null);
+        if (expected != null && Long.parseLong(expected, 16) != crc) {
+            throw new IOException("CRC mismatch: expected " + expected.toLowerCase() + ", got " + hex);
+        }
+        return "crc32=" + hex;
+    }
+    
+    private static CompressionModule.Codec parseCodec(String name) {
+        if ("none".equalsIgnoreCase(name)) {
+            return CompressionModule.Codec.STORED;
+        }
+        for (CompressionModule.Codec codec : CompressionModule.Codec.values()) {
+            if (codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+    
+    /**
+     * Parses a manifest. Blank lines and lines starting with # are skipped;
+     * values containing spaces can be double-quoted, and an option without
+     * a value (such as decompress) is read as true.
+     */
+    public static java.util.List<Job> parseManifest(Reader reader) throws IOException {
+        java.util.List<Job> jobs = new java.util.ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                java.util.List<String> tokens = tokenize(line);
+                Operation operation = parseOperation(tokens.get(0));
+                java.util.Map<String, String> options = new java.util.LinkedHashMap<>();
+                for (String token : tokens.subList(1, tokens.size())) {
+                    int equals = token.indexOf('=');
+                    if (equals < 0) {
+                        options.put(token, "true");
+                    } else {
+                        options.put(token.substring(0, equals), token.substring(equals + 1));
+                    }
+                }
+                jobs.add(new Job(jobs.size() + 1, operation, options));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Manifest line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return jobs;
+    }
+    
+    private static Operation parseOperation(String name) {
+        for (Operation operation : Operation.values()) {
+            if (operation.name().equalsIgnoreCase(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("unknown operation '" + name + "'");
+    }
+    
+    private static java.util.List<String> tokenize(String line) {
+        java.util.List<String> tokens = new java.util.ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean pending = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                pending = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (pending) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    pending = false;
+                }
+            } else {
+                token.append(c);
+                pending = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        if (pending) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+    
+    static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+    
+    public static class Job {
+        public final int number;
+        public final Operation operation;
+        public final java.util.Map<String, String> options;
+        
+        public Job(int number, Operation operation, java.util.Map<String, String> options) {
+            this.number = number;
+            this.operation = operation;
+            this.options = java.util.Collections.unmodifiableMap(options);
+            // Fail at parse time rather than halfway through a batch
+            inputFile();
+            outputFile();
+            if (operation == Operation.EMBED) {
+                file("image");
+            }
+            if ((operation == Operation.ENCRYPT || operation == Operation.DECRYPT)
+                    && (options.get("key") == null || options.get("key").isEmpty())) {
+                throw new IllegalArgumentException(operation.name().toLowerCase() + " needs key=<key>");
+            }
+        }
+        
+        File file(String name) {
+            String path = options.get(name);
+            if (path == null || path.isEmpty()) {
+                throw new IllegalArgumentException(operation.name().toLowerCase() + " needs " + name + "=<path>");
+            }
+            return new File(path);
+        }
+        
+        String option(String name, String defaultValue) {
+            String value = options.get(name);
+            return value != null ? value : defaultValue;
+        }
+        
+        File inputFile() {
+            return file(operation == Operation.EMBED ? "data" : operation == Operation.EXTRACT ? "image" : "input");
+        }
+        
+        java.util.List<File> inputFiles() {
+            return operation == Operation.EMBED
+                ? java.util.Arrays.asList(file("data"), file("image"))
+                : java.util.Collections.singletonList(inputFile());
+        }
+        
+        File outputFile() {
+            return operation == Operation.CHECKSUM ? null : file("output");
+        }
+    }
+    
+    public static class JobResult {
+        public final Job job;
+        public final boolean success;
+        public final long inputBytes;
+        public final long outputBytes;
+        public final long elapsedNanos;
+        public final long waitNanos;
+        public final String detail;
+        
+        public JobResult(Job job, boolean success, long inputBytes, long outputBytes,
+                         long elapsedNanos, long waitNanos, String detail) {
+            this.job = job;
+            this.success = success;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.waitNanos = waitNanos;
+            this.detail = detail;
+        }
+        
+        // millis is the whole job latency; waitMillis is the part spent waiting for a permit
+        public String toJson() {
+            return String.format(java.util.Locale.ROOT,
+                "{\"job\":%d,\"operation\":%s,\"status\":%s,\"millis\":%.3f,\"waitMillis\":%.3f,"
+                    + "\"inputBytes\":%d,\"outputBytes\":%d,%s:%s}",
+                job.number, jsonString(job.operation.name().toLowerCase()), success ? "\"ok\"" : "\"failed\"",
+                elapsedNanos / 1e6, waitNanos / 1e6, inputBytes, outputBytes,
+                success ? "\"result\"" : "\"error\"", jsonString(detail));
+        }
+        
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+    
+    public static class BatchSummary {
+        public final int jobs;
+        public final int succeeded;
+        public final int failed;
+        public final long inputBytes;
+        public final long outputBytes;
+        public final long elapsedNanos;
+        public final String executor;
+        private final long[] sortedLatencies;
+        
+        public BatchSummary(int jobs, int succeeded, long inputBytes, long outputBytes, long elapsedNanos,
+                            String executor, long[] latencies) {
+            this.jobs = jobs;
+            this.succeeded = succeeded;
+            this.failed = jobs - succeeded;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.executor = executor;
+            this.sortedLatencies = latencies.clone();
+            java.util.Arrays.sort(sortedLatencies);
+        }
+        
+        public double throughputMBps() {
+            return elapsedNanos == 0 ? 0 : inputBytes / (1024.0 * 1024) / (elapsedNanos / 1e9);
+        }
+        
+        public double jobsPerSecond() {
+            return elapsedNanos == 0 ? 0 : jobs / (elapsedNanos / 1e9);
+        }
+        
+        // Nearest-rank percentile of per-job latency, in milliseconds
+        public double latencyMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.length);
+            return sortedLatencies[Math.max(0, Math.min(rank, sortedLatencies.length) - 1)] / 1e6;
+        }
+        
+        public String toJson() {
+            return String.format(java.util.Locale.ROOT,
+                "{\"summary\":true,\"jobs\":%d,\"succeeded\":%d,\"failed\":%d,\"executor\":%s,\"wallMillis\":%.3f,"
+                    + "\"inputBytes\":%d,\"outputBytes\":%d,\"throughputMBps\":%.2f,\"jobsPerSecond\":%.2f,"
+                    + "\"p50Millis\":%.3f,\"p95Millis\":%.3f,\"p99Millis\":%.3f,\"maxMillis\":%.3f}",
+                jobs, succeeded, failed, jsonString(executor), elapsedNanos / 1e6, inputBytes, outputBytes,
+                throughputMBps(), jobsPerSecond(), latencyMillis(50), latencyMillis(95), latencyMillis(99), latencyMillis(100));
+        }
+        
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+}
+
+// Batch Engine Self-Check
+// Usage: java BatchEngineCheck
+// Checks manifest parsing, the read/write ordering between jobs and the
+// skipping of jobs whose producer failed, in a scratch directory. Prints
+// each failed check and exits 1 if there were any, so it can run headless.
+class BatchEngineCheck {
+    private static int failures;
+    
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        // Keep the check's jobs out of the user's audit trail unless asked for
+        if (System.getProperty(AuditLog.DIRECTORY_PROPERTY) == null) {
+            System.setProperty(AuditLog.DIRECTORY_PROPERTY, "off");
+        }
+        File directory = java.nio.file.Files.createTempDirectory("batch-check").toFile();
+        try {
+            checkParsing(directory);
+            checkOrdering(directory);
+            checkRun(directory);
+        } finally {
+            LoadTest.deleteTree(directory);
+        }
+        System.out.println(failures == 0 ? "All batch engine checks passed" : failures + " batch engine check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    private static void checkParsing(File directory) throws IOException {
+        java.util.List<BatchEngine.Job> jobs = BatchEngine.parseManifest(new StringReader(
+            "# comment\n"
+                + "\n"
+                + "checksum input=\"" + new File(directory, "my file.txt") + "\" expect=1a2b3c4d\n"
+                + "  extract image=stego.png output=\"out dir/notes.txt\" key=\"two words\" decompress\n"));
+        check("two jobs parsed", jobs.size() == 2);
+        check("quoted input keeps its space",
+            new File(directory, "my file.txt").getPath().equals(jobs.get(0).options.get("input")));
+        check("quoted key keeps its space", "two words".equals(jobs.get(1).options.get("key")));
+        check("option without a value reads as true", "true".equals(jobs.get(1).options.get("decompress")));
+        check("jobs are numbered in manifest order", jobs.get(1).number == 2);
+        
+        checkRejected("checksum input=\"open", "Manifest line 1: unterminated quote");
+        checkRejected("checksum input=a.txt\nresize input=a.txt", "Manifest line 2: unknown operation 'resize'");
+        checkRejected("compress input=a.txt", "Manifest line 1: compress needs output=<path>");
+        checkRejected("encrypt input=a.txt output=b.txt", "Manifest line 1: encrypt needs key=<key>");
+    }
+    
+    private static void checkOrdering(File directory) throws IOException {
+        File a = write(directory, "a.txt", "first");
+        File b = write(directory, "b.txt", "second");
+        java.util.List<BatchEngine.Dependencies> plan = BatchEngine.plan(BatchEngine.parseManifest(new StringReader(
+            "checksum input=" + quote(a) + "\n"
+                + "compress input=" + quote(b) + " output=" + quote(a) + "\n"
+                + "compress input=" + quote(b) + " output=" + quote(a) + "\n"
+                + "decompress input=" + quote(a) + " output=" + quote(new File(directory, "c.txt")) + "\n"
+                + "checksum input=" + quote(new File(directory, "missing.txt")) + "\n")));
+        check("a first reader waits for nothing", plan.get(0).waitsFor.isEmpty() && plan.get(0).producers.isEmpty());
+        check("write-after-read waits for the reader", plan.get(1).waitsFor.equals(java.util.Arrays.asList(0))
+            && plan.get(1).producers.isEmpty());
+        check("write-after-write waits for the writer", plan.get(2).waitsFor.equals(java.util.Arrays.asList(1))
+            && plan.get(2).producers.isEmpty());
+        check("read-after-write depends on the last writer", plan.get(3).producers.equals(java.util.Arrays.asList(2))
+            && plan.get(3).waitsFor.equals(java.util.Arrays.asList(2)));
+        check("a missing input is reported", new File(directory, "missing.txt").getPath().equals(plan.get(4).missingInput)
+            && plan.get(3).missingInput == null);
+    }
+    
+    private static void checkRun(File directory) throws IOException {
+        File text = write(directory, "plain.txt", "plain text, not an archive\n");
+        String expected = String.format("%08x", new CRCModule().generateCRC(text));
+        File broken = new File(directory, "broken.txt");
+        File archive = new File(directory, "plain.gz");
+        File roundTrip = new File(directory, "round.txt");
+        java.util.List<BatchEngine.Job> jobs = BatchEngine.parseManifest(new StringReader(
+            "decompress input=" + quote(text) + " output=" + quote(broken) + "\n"
+                + "checksum input=" + quote(broken) + "\n"
+                + "compress input=" + quote(text) + " output=" + quote(archive) + "\n"
+                + "decompress input=" + quote(archive) + " output=" + quote(roundTrip) + "\n"
+                + "checksum input=" + quote(roundTrip) + " expect=" + expected + "\n"));
+        java.util.List<BatchEngine.JobResult> results = new java.util.ArrayList<>();
+        BatchEngine engine = new BatchEngine(new CompressionModule());
+        BatchEngine.BatchSummary summary = engine.runJobs(jobs, BatchEngine.newWorkerPool(4), "check",
+            new PrintStream(new ByteArrayOutputStream()), results::add);
+        check("every job reports a result", results.size() == jobs.size() && summary.jobs == jobs.size());
+        check("a bad archive fails", !results.get(0).success);
+        check("the consumer of a failed job is skipped", !results.get(1).success
+            && "Skipped: job 1 failed".equals(results.get(1).detail));
+        check("a compress -> decompress -> checksum chain runs in order", results.get(2).success
+            && results.get(3).success && results.get(4).success);
+        check("the summary counts the failures", summary.failed == 2);
+    }
+    
+    private static void checkRejected(String manifest, String message) {
+        try {
+            BatchEngine.parseManifest(new StringReader(manifest));
+            check("rejected: " + message, false);
+        } catch (IOException e) {
+            check("rejected: " + message, message.equals(e.getMessage()));
+        }
+    }
+    
+    // Temporary directories can have spaces in them, e.g. under a Windows user profile
+    private static String quote(File file) {
+        return "\"" + file.getPath() + "\"";
+    }
+    
+    private static File write(File directory, String name, String content) throws IOException {
+        File file = new File(directory, name);
+        java.nio.file.Files.write(file.toPath(), content.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        return file;
+    }
+    
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
+
+// Load Test Harness
+// Usage: java LoadTest [--covers 512x512,2048x2048] [--formats png,bmp] [--payloads 16k,256k]
+//        [--entropy 2,8] [--rounds N] [--warmup N] [--concurrency N] [--dir path] [--results file]
+// Generates a deterministic corpus of cover images and payloads, then runs
+// every embed -> extract -> checksum and compress -> decompress chain through
+// the batch engine at the given concurrency, the same code path as --batch.
+class LoadTest {
+    private static final String USAGE =
+        "Usage: java LoadTest [--covers 512x512,2048x2048] [--formats png,bmp] [--payloads 16k,256k]\n"
+        + "       [--entropy 2,8] [--rounds N] [--warmup N] [--concurrency N] [--dir path] [--results file]";
+    private static final String KEY = "load-test";
+    
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        java.util.List<int[]> covers = new java.util.ArrayList<>();
+        java.util.List<String> formats = new java.util.ArrayList<>();
+        java.util.List<Integer> payloadSizes = new java.util.ArrayList<>();
+        java.util.List<Double> entropies = new java.util.ArrayList<>();
+        int rounds = 3;
+        int warmupRounds = 1;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        File directory = null;
+        String resultsPath = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--covers":
+                        for (String size : args[++i].split(",")) {
+                            String[] parts = size.toLowerCase().split("x");
+                            int width = Integer.parseInt(parts[0]);
+                            covers.add(new int[] { width, parts.length > 1 ? Integer.parseInt(parts[1]) : width });
+                        }
+                        break;
+                    case "--formats":
+                        for (String format : args[++i].split(",")) {
+                            formats.add(format.toLowerCase());
+                        }
+                        break;
+                    case "--payloads":
+                        for (String size : args[++i].split(",")) {
+                            payloadSizes.add(parseSize(size));
+                        }
+                        break;
+                    case "--entropy":
+                        for (String bits : args[++i].split(",")) {
+                            double entropy = Double.parseDouble(bits);
+                            if (entropy < 0 || entropy > 8) {
+                                throw new IllegalArgumentException("Entropy is in bits per byte, 0 to 8");
+                            }
+                            entropies.add(entropy);
+                        }
+                        break;
+                    case "--rounds":
+                        rounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmupRounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--concurrency":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "--dir":
+                        directory = new File(args[++i]);
+                        break;
+                    case "--results":
+                        resultsPath = args[++i];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (rounds < 1 || warmupRounds < 0 || concurrency < 1) {
+                throw new IllegalArgumentException("Rounds and concurrency must be positive");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (covers.isEmpty()) {
+            covers.add(new int[] { 512, 512 });
+            covers.add(new int[] { 2048, 2048 });
+        }
+        if (formats.isEmpty()) {
+            formats.add("png");
+        }
+        if (payloadSizes.isEmpty()) {
+            payloadSizes.add(16 * 1024);
+            payloadSizes.add(256 * 1024);
+        }
+        if (entropies.isEmpty()) {
+            entropies.add(4.0);
+            entropies.add(8.0);
+        }
+        boolean temporary = directory == null;
+        if (temporary) {
+            directory = java.nio.file.Files.createTempDirectory("load-test").toFile();
+        } else if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        
+        int exitCode;
+        try {
+            exitCode = run(directory, covers, formats, payloadSizes, entropies, rounds, warmupRounds, concurrency, resultsPath);
+        } finally {
+            if (temporary) {
+                deleteTree(directory);
+            }
+        }
+        System.exit(exitCode);
+    }
+    
+    static int run(File directory, java.util.List<int[]> covers, java.util.List<String> formats,
+                   java.util.List<Integer> payloadSizes, java.util.List<Double> entropies,
+                   int rounds, int warmupRounds, int concurrency, String resultsPath) throws IOException {
+        java.util.List<File> coverFiles = new java.util.ArrayList<>();
+        for (int[] size : covers) {
+            for (String format : formats) {
+                coverFiles.add(writeCover(directory, size[0], size[1], format));
+            }
+        }
+        java.util.List<File> payloadFiles = new java.util.ArrayList<>();
+        for (int size : payloadSizes) {
+            for (double entropy : entropies) {
+                payloadFiles.add(writePayload(directory, size, entropy));
+            }
+        }
+        System.out.printf("Corpus: %d covers, %d payloads in %s%n", coverFiles.size(), payloadFiles.size(), directory);
+        
+        CompressionModule compressionModule = new CompressionModule();
+        BatchEngine engine = new BatchEngine(compressionModule);
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        
+        int skipped = 0;
+        for (int round = 0; round < warmupRounds; round++) {
+            java.util.List<BatchEngine.Job> warmup = new java.util.ArrayList<>();
+            skipped = addRound(warmup, directory, "w" + round, coverFiles, payloadFiles);
+            engine.runJobs(warmup, BatchEngine.newWorkerPool(concurrency), "warmup", discard);
+        }
+        java.util.List<BatchEngine.Job> jobs = new java.util.ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            skipped = addRound(jobs, directory, "r" + round, coverFiles, payloadFiles);
+        }
+        if (skipped > 0) {
+            System.out.printf("Skipped %d cover/payload pairs whose payload does not fit the cover%n", skipped);
+        }
+        
+        java.util.Map<BatchEngine.Operation, java.util.List<BatchEngine.JobResult>> byOperation =
+            new java.util.EnumMap<>(BatchEngine.Operation.class);
+        long[] gcBefore = gcTotals();
+        BatchEngine.BatchSummary summary;
+        try (PrintStream out = resultsPath == null ? discard
+                : new PrintStream(new FileOutputStream(resultsPath), true, "UTF-8")) {
+            summary = engine.runJobs(jobs, BatchEngine.newWorkerPool(concurrency), "platform-" + concurrency, out,
+                result -> byOperation.computeIfAbsent(result.job.operation, operation -> new java.util.ArrayList<>()).add(result));
+        }
+        long[] gcAfter = gcTotals();
+        long gcCount = gcAfter[0] - gcBefore[0];
+        long gcMillis = gcAfter[1] - gcBefore[1];
+        long peakRssKilobytes = readProcStatus("VmHWM");
+        
+        System.out.printf("%-12s %6s %7s %10s %10s %10s %10s%n", "Operation", "jobs", "failed", "p50 ms", "p99 ms", "max ms", "MB/s/job");
+        for (java.util.Map.Entry<BatchEngine.Operation, java.util.List<BatchEngine.JobResult>> entry : byOperation.entrySet()) {
+            java.util.List<BatchEngine.JobResult> results = entry.getValue();
+            long[] latencies = new long[results.size()];
+            int succeeded = 0;
+            long inputBytes = 0;
+            long busyNanos = 0;
+            for (int i = 0; i < results.size(); i++) {
+                BatchEngine.JobResult result = results.get(i);
+                latencies[i] = result.elapsedNanos;
+                succeeded += result.success ? 1 : 0;
+                inputBytes += result.inputBytes;
+                busyNanos += result.elapsedNanos;
+            }
+            BatchEngine.BatchSummary operation = new BatchEngine.BatchSummary(results.size(), succeeded, inputBytes, 0,
+                busyNanos, summary.executor, latencies);
+            System.out.printf("%-12s %6d %7d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey().name().toLowerCase(),
+                operation.jobs, operation.failed, operation.latencyMillis(50), operation.latencyMillis(99),
+                operation.latencyMillis(100), operation.throughputMBps());
+        }
+        double wallMillis = summary.elapsedNanos / 1e6;
+        System.out.printf("Wall %.0f ms, %.2f jobs/s, %.1f MB/s in; p50 %.2f ms, p99 %.2f ms%n",
+            wallMillis, summary.jobsPerSecond(), summary.throughputMBps(), summary.latencyMillis(50), summary.latencyMillis(99));
+        System.out.printf("GC %d collections, %d ms (%.1f%% of wall); peak RSS %s%n", gcCount, gcMillis,
+            wallMillis == 0 ? 0 : gcMillis * 100 / wallMillis,
+            peakRssKilobytes < 0 ? "unavailable" : ProgressTracker.ProgressEvent.formatBytes(peakRssKilobytes * 1024.0));
+        System.out.println(String.format(java.util.Locale.ROOT,
+            "{\"loadtest\":true,\"concurrency\":%d,\"rounds\":%d,\"jobs\":%d,\"failed\":%d,\"wallMillis\":%.3f,"
+                + "\"jobsPerSecond\":%.2f,\"throughputMBps\":%.2f,\"p50Millis\":%.3f,\"p99Millis\":%.3f,"
+                + "\"gcCount\":%d,\"gcMillis\":%d,\"peakRssKB\":%d}",
+            concurrency, rounds, summary.jobs, summary.failed, wallMillis, summary.jobsPerSecond(), summary.throughputMBps(),
+            summary.latencyMillis(50), summary.latencyMillis(99), gcCount, gcMillis, peakRssKilobytes));
+        return summary.failed == 0 ? 0 : 1;
+    }
+    
+    /**
+     * Adds one round of job chains for every cover/payload pair that fits and
+     * returns the number that did not. The extracted payload is checked
+     * against the CRC of the original, so a wrong round trip fails the run.
+     */
+    private static int addRound(java.util.List<BatchEngine.Job> jobs, File directory, String round,
+                                java.util.List<File> coverFiles, java.util.List<File> payloadFiles) throws IOException {
+        int skipped = 0;
+        for (File cover : coverFiles) {
+            long capacityBytes = capacityBytes(cover);
+            for (File payload : payloadFiles) {
+                String name = round + "-" + stripExtension(cover) + "-" + stripExtension(payload);
+                String crc = String.format("%08x", new CRCModule().generateCRC(payload));
+                File stego = new File(directory, name + ".png");
+                File extracted = new File(directory, name + ".out");
+                // Adaptive packing stores incompressible payloads raw, plus a small header
+                if (payload.length() + 64 <= capacityBytes) {
+                    jobs.add(job(jobs, BatchEngine.Operation.EMBED, "image", cover.getPath(), "data", payload.getPath(),
+                        "output", stego.getPath(), "codec", "gzip", "key", KEY));
+                    jobs.add(job(jobs, BatchEngine.Operation.EXTRACT, "image", stego.getPath(), "output", extracted.getPath(),
+                        "key", KEY, "decompress", "true"));
+                    jobs.add(job(jobs, BatchEngine.Operation.CHECKSUM, "input", extracted.getPath(), "expect", crc));
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        for (File payload : payloadFiles) {
+            String name = round + "-" + stripExtension(payload);
+            File compressed = new File(directory, name + ".gz");
+            File decompressed = new File(directory, name + ".gunzip");
+            String crc = String.format("%08x", new CRCModule().generateCRC(payload));
+            jobs.add(job(jobs, BatchEngine.Operation.COMPRESS, "input", payload.getPath(), "output", compressed.getPath()));
+            jobs.add(job(jobs, BatchEngine.Operation.DECOMPRESS, "input", compressed.getPath(), "output", decompressed.getPath()));
+            jobs.add(job(jobs, BatchEngine.Operation.CHECKSUM, "input", decompressed.getPath(), "expect", crc));
+        }
+        File archive = new File(directory, round + "-members.gz");
+        File members = new File(directory, round + "-members.out");
+        String membersCrc = writeMemberArchive(archive);
+        jobs.add(job(jobs, BatchEngine.Operation.DECOMPRESS, "input", archive.getPath(), "output", members.getPath()));
+        jobs.add(job(jobs, BatchEngine.Operation.CHECKSUM, "input", members.getPath(), "expect", membersCrc));
+        return skipped;
+    }
+    
+    /**
+     * Two gzip members, the first ending 8 bytes before the end of a
+     * read-ahead chunk. GZIPInputStream looks for a further member only if
+     * the stream still reports bytes available there, so this catches a
+     * decompressor that stops after the first member. Returns the CRC-32
+     * of the decompressed content.
+     */
+    static String writeMemberArchive(File file) throws IOException {
+        byte[] first = new byte[InputModule.ASYNC_CHUNK_SIZE];
+        byte[] second = new byte[64 * 1024];
+        java.util.Random random = new java.util.Random(47);
+        random.nextBytes(first);
+        random.nextBytes(second);
+        // Stored blocks make the member length grow one byte per input byte
+        int target = InputModule.ASYNC_CHUNK_SIZE - 8;
+        int length = target - 512;
+        byte[] member = storedMember(first, length);
+        while (member.length < target) {
+            member = storedMember(first, ++length);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(member);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(second);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(first, 0, length);
+        crc.update(second, 0, second.length);
+        return String.format("%08x", crc.getValue());
+    }
+    
+    private static byte[] storedMember(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length + 1024);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer) {
+            {
+                def.setLevel(Deflater.NO_COMPRESSION);
+            }
+        }) {
+            gzip.write(data, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+    
+    private static BatchEngine.Job job(java.util.List<BatchEngine.Job> jobs, BatchEngine.Operation operation, String... options) {
+        java.util.Map<String, String> map = new java.util.LinkedHashMap<>();
+        for (int i = 0; i < options.length; i += 2) {
+            map.put(options[i], options[i + 1]);
+        }
+        return new BatchEngine.Job(jobs.size() + 1, operation, map);
+    }
+    
+    static File writeCover(File directory, int width, int height, String format) throws IOException {
+        File file = new File(directory, "cover-" + width + "x" + height + "." + format);
+        BufferedImage image = ModuleBenchmark.syntheticImage(width, height);
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        return file;
+    }
+    
+    /**
+     * Bytes drawn uniformly from an alphabet of 2^entropy symbols, so the
+     * payload has close to the requested bits per byte of order-0 entropy.
+     */
+    static File writePayload(File directory, int size, double entropy) throws IOException {
+        int symbols = (int) Math.max(1, Math.min(256, Math.round(Math.pow(2, entropy))));
+        java.util.Random random = new java.util.Random(size * 31L + symbols);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(symbols));
+        }
+        File file = new File(directory, String.format(java.util.Locale.ROOT, "payload-%d-e%.1f.bin", size, entropy));
+        new InputModule().writeBytesToFile(data, file);
+        return file;
+    }
+    
+    private static long capacityBytes(File cover) throws IOException {
+        BufferedImage image = ImageIO.read(cover);
+        return ((long) image.getWidth() * image.getHeight() - 64) / 8;
+    }
+    
+    private static String stripExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+    
+    private static int parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        int multiplier = 1;
+        if (value.endsWith("k")) {
+            multiplier = 1024;
+        } else if (value.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Math.multiplyExact(Integer.parseInt(value), multiplier);
+    }
+    
+    // Collection count and time summed over every collector
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (java.lang.management.GarbageCollectorMXBean collector : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+    
+    // A kB field of /proc/self/status, or -1 where there is no procfs
+    private static long readProcStatus(String field) {
+        try {
+            for (String line : java.nio.file.Files.readAllLines(java.nio.file.Paths.get("/proc/self/status"),
+                    java.nio.charset.StandardCharsets.US_ASCII)) {
+                if (line.startsWith(field + ":")) {
+                    return Long.parseLong(line.substring(field.length() + 1).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+    
+    static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
+
+// Job Scheduler Class
+// Application-wide home for background work. CPU-heavy jobs (compression,
+// embedding, training) and disk-heavy jobs (checksums, directory scans) run
+// on separate fixed pools, so a long scan cannot starve an embed. Each pool
+// takes its queued jobs highest priority first, then in submission order.
+class JobScheduler {
+    public static final int MAX_QUEUED_PER_POOL = 32;
+    
+    public enum Kind { CPU, IO }
+    
+    public enum Priority {
+        HIGH("High"), NORMAL("Normal"), LOW("Low");
+        
+        private final String label;
+        
+        Priority(String label) {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    public enum Status {
+        QUEUED("Queued"), RUNNING("Running"), CANCELLING("Cancelling"),
+        CANCELLED("Cancelled"), FAILED("Failed"), DONE("Done");
+        
+        private final String label;
+        
+        Status(String label) {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
     }
     
-    public long generateCRC(String data) {
-        crc32.reset();
-        crc32.update(data.getBytes());
-        return crc32.getValue();
+    public interface Task<T> {
+        T run(Job<T> job) throws Exception;
     }
     
-    public long generateCRC(byte[] data) {
-        crc32.reset();
-        crc32.update(data);
-        return crc32.getValue();
+    // Callbacks arrive on the event dispatch thread; finished() only once the
+    // task has returned, even when the job was cancelled while it ran
+    public interface JobListener<T> {
+        void finished(Job<T> job);
+        
+        default void progressChanged(ProgressTracker.ProgressEvent event) {
+        }
     }
     
-    public long generateCRC(File file) throws IOException {
-        crc32.reset();
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                crc32.update(buffer, 0, bytesRead);
-            }
-        }
-        return crc32.getValue();
+    private final java.util.concurrent.ThreadPoolExecutor cpuPool;
+    private final java.util.concurrent.ThreadPoolExecutor ioPool;
+    private final java.util.concurrent.atomic.AtomicLong sequence = new java.util.concurrent.atomic.AtomicLong();
+    private final java.util.List<Job<?>> jobs = new java.util.concurrent.CopyOnWriteArrayList<>();
+    private final java.util.List<Runnable> changeListeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+    private final java.util.concurrent.atomic.AtomicBoolean changePending = new java.util.concurrent.atomic.AtomicBoolean();
+    
+    public JobScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), 2);
     }
     
-    public boolean verifyCRC(String data, long expectedCRC) {
-        return generateCRC(data) == expectedCRC;
+    public JobScheduler(int cpuThreads, int ioThreads) {
+        cpuPool = newPool("cpu", cpuThreads);
+        ioPool = newPool("io", ioThreads);
     }
     
-    public boolean verifyCRC(byte[] data, long expectedCRC) {
-        return generateCRC(data) == expectedCRC;
+    private static java.util.concurrent.ThreadPoolExecutor newPool(String name, int threads) {
+        java.util.concurrent.atomic.AtomicInteger threadNumber = new java.util.concurrent.atomic.AtomicInteger();
+        // Only Jobs are ever queued, and they order themselves by priority
+        return new java.util.concurrent.ThreadPoolExecutor(threads, threads, 0L, java.util.concurrent.TimeUnit.MILLISECONDS,
+            new java.util.concurrent.PriorityBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, "job-" + name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
     }
     
-    public boolean verifyCRC(File file, long expectedCRC) throws IOException {
-        return generateCRC(file) == expectedCRC;
+    /**
+     * Queues a task. Throws RejectedExecutionException when the pool already
+     * has MAX_QUEUED_PER_POOL jobs waiting.
+     */
+    public <T> Job<T> submit(String name, Kind kind, Priority priority, Task<T> task, JobListener<T> listener) {
+        java.util.concurrent.ThreadPoolExecutor pool = poolFor(kind);
+        if (pool.getQueue().size() >= MAX_QUEUED_PER_POOL) {
+            throw new java.util.concurrent.RejectedExecutionException(
+                "Too many " + kind + " jobs are queued; wait for some to finish");
+        }
+        Job<T> job = new Job<>(this, name, kind, priority, sequence.incrementAndGet(), task, listener);
+        jobs.add(job);
+        pool.execute(job);
+        fireChanged();
+        return job;
     }
-}
-
-// Compression Module Class
-class CompressionModule {
     
-    public CompressionResult compressFile(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
-        long originalSize = inputFile.length();
-        long startTime = System.currentTimeMillis();
-        
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile);
-             GZIPOutputStream gzos = new GZIPOutputStream(fos)) {
-            
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            long totalBytesRead = 0;
-            
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                gzos.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-                
-                if (callback != null) {
-                    int progress = (int) ((totalBytesRead * 100) / originalSize);
-                    callback.updateProgress(progress);
-                }
-            }
+    /**
+     * Changes the priority of a job that has not started yet. Returns false
+     * if it is already running or finished.
+     */
+    public boolean reprioritize(Job<?> job, Priority priority) {
+        java.util.concurrent.ThreadPoolExecutor pool = poolFor(job.kind);
+        // The queue is a heap, so the job has to leave it before its key changes
+        if (!pool.remove(job)) {
+            return false;
         }
-        
-        long compressedSize = outputFile.length();
-        long endTime = System.currentTimeMillis();
-        double compressionRatio = ((double) (originalSize - compressedSize) / originalSize) * 100;
-        
-        return new CompressionResult(
-            inputFile.getName(),
-            outputFile.getName(),
-            originalSize,
-            compressedSize,
-            compressionRatio,
-            endTime - startTime
-        );
+        job.priority = priority;
+        pool.execute(job);
+        fireChanged();
+        return true;
     }
     
-    public void decompressFile(File inputFile, File outputFile, ProgressCallback callback) throws IOException {
-        long inputSize = inputFile.length();
-        
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             GZIPInputStream gzis = new GZIPInputStream(fis);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
-            
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            long totalBytesRead = 0;
-            
-            while ((bytesRead = gzis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-                
-                if (callback != null) {
-                    // Approximate progress for decompression
-                    int progress = Math.min(99, (int) ((totalBytesRead * 50) / inputSize));
-                    callback.updateProgress(progress);
-                }
-            }
-            
-            if (callback != null) {
-                callback.updateProgress(100);
+    /**
+     * Cancels a queued job outright, or interrupts a running one. Module
+     * loops check for the interrupt between chunks, so a running job stops
+     * within one buffer's worth of work.
+     */
+    public void cancel(Job<?> job) {
+        poolFor(job.kind).remove(job);
+        job.cancel(true);
+        fireChanged();
+    }
+    
+    public void clearFinished() {
+        for (Job<?> job : jobs) {
+            if (job.isDone() && !job.running) {
+                jobs.remove(job);
             }
         }
+        fireChanged();
     }
     
-    public byte[] compressData(byte[] data) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
-            gzos.write(data);
-            gzos.finish();
-            return baos.toByteArray();
-        }
+    public java.util.List<Job<?>> getJobs() {
+        return new java.util.ArrayList<>(jobs);
     }
     
-    public byte[] decompressData(byte[] compressedData) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(compressedData);
-             GZIPInputStream gzis = new GZIPInputStream(bais);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = gzis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            return baos.toByteArray();
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+    
+    public void shutdown() {
+        cpuPool.shutdownNow();
+        ioPool.shutdownNow();
+    }
+    
+    /**
+     * Called from module loops between chunks of work. Throws once the
+     * current thread has been interrupted, which is how cancel() reaches a
+     * running job.
+     */
+    public static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Operation cancelled");
         }
     }
     
-    public interface ProgressCallback {
-        void updateProgress(int progress);
+    private java.util.concurrent.ThreadPoolExecutor poolFor(Kind kind) {
+        return kind == Kind.CPU ? cpuPool : ioPool;
     }
     
-    public static class CompressionResult {
-        public final String sourceFileName;
-        public final String destinationFileName;
-        public final long originalSize;
-        public final long compressedSize;
-        public final double compressionRatio;
-        public final long processingTime;
+    // Many progress updates collapse into one repaint of the queue view
+    void fireChanged() {
+        if (changePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                changePending.set(false);
+                for (Runnable listener : changeListeners) {
+                    listener.run();
+                }
+            });
+        }
+    }
+    
+    public static class Job<T> extends java.util.concurrent.FutureTask<T>
+            implements Comparable<Job<?>>, CompressionModule.ProgressCallback {
+        public final String name;
+        public final Kind kind;
+        private final long sequence;
+        private final JobScheduler scheduler;
+        private final JobListener<T> listener;
+        private final java.util.List<File> cleanupFiles = new java.util.concurrent.CopyOnWriteArrayList<>();
+        private volatile Priority priority;
+        private volatile ProgressTracker.ProgressEvent progress = ProgressTracker.ProgressEvent.ofPercent(0);
+        private volatile boolean running;
+        private final java.util.concurrent.atomic.AtomicBoolean finished = new java.util.concurrent.atomic.AtomicBoolean();
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile String auditOperation;
+        private volatile File auditSubject;
+        private volatile File auditOutput;
+        
+        Job(JobScheduler scheduler, String name, Kind kind, Priority priority, long sequence,
+            Task<T> task, JobListener<T> listener) {
+            this(new Body<T>(task), scheduler, name, kind, priority, sequence, listener);
+        }
         
-        public CompressionResult(String sourceFileName, String destinationFileName,
-                               long originalSize, long compressedSize,
-                               double compressionRatio, long processingTime) {
-            this.sourceFileName = sourceFileName;
-            this.destinationFileName = destinationFileName;
-            this.originalSize = originalSize;
-            this.compressedSize = compressedSize;
-            this.compressionRatio = compressionRatio;
-            this.processingTime = processingTime;
+        private Job(Body<T> body, JobScheduler scheduler, String name, Kind kind, Priority priority, long sequence,
+                    JobListener<T> listener) {
+            super(body);
+            body.job = this;
+            this.scheduler = scheduler;
+            this.name = name;
+            this.kind = kind;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.listener = listener;
+        }
+        
+        public Priority getPriority() {
+            return priority;
+        }
+        
+        public int getProgress() {
+            return progress.percent;
+        }
+        
+        public ProgressTracker.ProgressEvent getProgressEvent() {
+            return progress;
+        }
+        
+        public void setProgress(int progress) {
+            if (progress != this.progress.percent) {
+                progressChanged(ProgressTracker.ProgressEvent.ofPercent(progress));
+            }
         }
         
         @Override
-        public String toString() {
-            return String.format(
-                "Compression Report:\n" +
-                "Source File: %s\n" +
-                "Destination File: %s\n" +
-                "Original Size: %d bytes\n" +
-                "Compressed Size: %d bytes\n" +
-                "Compression Ratio: %.2f%%\n" +
-                "Processing Time: %d ms",
-                sourceFileName, destinationFileName, originalSize, 
-                compressedSize, compressionRatio, processingTime
-            );
+        public void updateProgress(int progress) {
+            setProgress(progress);
         }
-    }
-}
-
-// Steganography Module Class
-class SteganographyModule {
-    
-    public void embedDataInImage(File imageFile, byte[] data, File outputFile) throws IOException {
-        BufferedImage image = ImageIO.read(imageFile);
-        BufferedImage outputImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
         
-        // Copy original image
-        Graphics2D g2d = outputImage.createGraphics();
-        g2d.drawImage(image, 0, 0, null);
-        g2d.dispose();
+        // Already rate limited by the ProgressTracker reporting it
+        @Override
+        public void progressChanged(ProgressTracker.ProgressEvent event) {
+            this.progress = event;
+            scheduler.fireChanged();
+            if (listener != null) {
+                SwingUtilities.invokeLater(() -> listener.progressChanged(event));
+            }
+        }
         
-        // Convert data to binary string
-        StringBuilder binaryData = new StringBuilder();
-        for (byte b : data) {
-            binaryData.append(String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0'));
+        // Writes an audit record for this operation when the job ends, however it ends
+        public void audit(String operation, File subject, File output) {
+            auditSubject = subject;
+            auditOutput = output;
+            auditOperation = operation;
         }
         
-        // Add end marker
-        binaryData.append("1111111111111110"); // End marker
+        /**
+         * Deletes the file if the job ends up cancelled, once the task has
+         * actually stopped writing to it.
+         */
+        public void deleteOnCancel(File file) {
+            cleanupFiles.add(file);
+        }
         
-        String binaryString = binaryData.toString();
-        int dataIndex = 0;
+        public Status getStatus() {
+            if (isCancelled()) {
+                return running ? Status.CANCELLING : Status.CANCELLED;
+            }
+            if (!isDone()) {
+                return running ? Status.RUNNING : Status.QUEUED;
+            }
+            return getFailure() == null ? Status.DONE : Status.FAILED;
+        }
         
-        // Embed data using LSB technique
-        outerLoop:
-        for (int y = 0; y < outputImage.getHeight() && dataIndex < binaryString.length(); y++) {
-            for (int x = 0; x < outputImage.getWidth() && dataIndex < binaryString.length(); x++) {
-                int rgb = outputImage.getRGB(x, y);
-                
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = rgb & 0xFF;
-                
-                // Modify LSB of red channel
-                if (dataIndex < binaryString.length()) {
-                    int bit = Character.getNumericValue(binaryString.charAt(dataIndex));
-                    red = (red & 0xFE) | bit;
-                    dataIndex++;
-                }
-                
-                int newRgb = (red << 16) | (green << 8) | blue;
-                outputImage.setRGB(x, y, newRgb);
+        public Throwable getFailure() {
+            if (!isDone() || isCancelled()) {
+                return null;
+            }
+            try {
+                get();
+                return null;
+            } catch (java.util.concurrent.ExecutionException e) {
+                return e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             }
         }
         
-        // Save the output image
-        String formatName = getImageFormat(outputFile.getName());
-        ImageIO.write(outputImage, formatName, outputFile);
-    }
-    
-    public byte[] extractDataFromImage(File imageFile) throws IOException {
-        BufferedImage image = ImageIO.read(imageFile);
-        StringBuilder binaryData = new StringBuilder();
+        public long getElapsedMillis() {
+            if (startNanos == 0) {
+                return 0;
+            }
+            return ((running ? System.nanoTime() : endNanos) - startNanos) / 1_000_000;
+        }
         
-        // Extract LSB from red channel
-        outerLoop:
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int rgb = image.getRGB(x, y);
-                int red = (rgb >> 16) & 0xFF;
-                
-                // Extract LSB
-                int lsb = red & 1;
-                binaryData.append(lsb);
-                
-                // Check for end marker
-                if (binaryData.length() >= 16) {
-                    String lastBits = binaryData.substring(binaryData.length() - 16);
-                    if ("1111111111111110".equals(lastBits)) {
-                        binaryData.setLength(binaryData.length() - 16); // Remove end marker
-                        break outerLoop;
-                    }
-                }
+        @Override
+        public int compareTo(Job<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+        
+        // A cancelled job is done as soon as cancel() returns, but its task may
+        // still be writing; runTask reports it once the task has really stopped
+        @Override
+        protected void done() {
+            if (!running) {
+                finish();
             }
         }
         
-        // Convert binary string to bytes
-        String binaryString = binaryData.toString();
-        byte[] extractedData = new byte[binaryString.length() / 8];
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (auditOperation != null) {
+                Throwable failure = getFailure();
+                AuditLog.get().record(auditOperation, auditSubject, auditOutput,
+                    isCancelled() ? "cancelled" : failure == null ? "ok" : "failed",
+                    progress.bytesDone, getElapsedMillis(), failure == null ? null
+                        : failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName());
+            }
+            scheduler.fireChanged();
+            if (listener != null) {
+                SwingUtilities.invokeLater(() -> listener.finished(this));
+            }
+        }
         
-        for (int i = 0; i < extractedData.length; i++) {
-            String byteString = binaryString.substring(i * 8, (i + 1) * 8);
-            extractedData[i] = (byte) Integer.parseInt(byteString, 2);
+        private T runTask(Task<T> task) throws Exception {
+            startNanos = System.nanoTime();
+            running = true;
+            scheduler.fireChanged();
+            try {
+                // Cancelled between being dequeued and getting here, and done() has already reported it
+                if (isCancelled()) {
+                    return null;
+                }
+                return task.run(this);
+            } finally {
+                endNanos = System.nanoTime();
+                if (isCancelled()) {
+                    for (File file : cleanupFiles) {
+                        file.delete();
+                    }
+                }
+                running = false;
+                if (isCancelled()) {
+                    finish();
+                }
+                scheduler.fireChanged();
+            }
         }
         
-        return extractedData;
-    }
-    
-    private String getImageFormat(String fileName) {
-        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
-        switch (extension) {
-            case "jpg":
-            case "jpeg":
-                return "jpg";
-            case "png":
-                return "png";
-            case "bmp":
-                return "bmp";
-            default:
-                return "png"; // Default to PNG
+        @Override
+        public String toString() {
+            return name;
         }
     }
     
-    public boolean canEmbedData(File imageFile, int dataSize) throws IOException {
-        BufferedImage image = ImageIO.read(imageFile);
-        int availableBits = image.getWidth() * image.getHeight();
-        int requiredBits = (dataSize * 8) + 16; // Data bits + end marker
-        return availableBits >= requiredBits;
+    // FutureTask needs its callable before the Job exists, so this is wired up afterwards
+    private static class Body<T> implements java.util.concurrent.Callable<T> {
+        private final Task<T> task;
+        private Job<T> job;
+        
+        Body(Task<T> task) {
+            this.task = task;
+        }
+        
+        @Override
+        public T call() throws Exception {
+            return job.runTask(task);
+        }
     }
 }
 
@@ -713,6 +8140,14 @@ class EncryptionDialog extends JDialog {
         add(outputPanel, BorderLayout.SOUTH);
     }
     
+    // The application keeps one instance and resets it before each showing
+    void reset() {
+        setLocationRelativeTo(getParent());
+        inputArea.setText("");
+        keyField.setText("");
+        outputArea.setText("");
+    }
+    
     private void performEncryption() {
         String text = inputArea.getText().trim();
         String key = keyField.getText().trim();
@@ -722,10 +8157,13 @@ class EncryptionDialog extends JDialog {
             return;
         }
         
+        long start = System.nanoTime();
         try {
             String encrypted = encryptionModule.encryptText(text, key);
             outputArea.setText(encrypted);
+            AuditLog.get().record("encrypt-text", null, null, "ok", text.length(), (System.nanoTime() - start) / 1_000_000, null);
         } catch (Exception e) {
+            AuditLog.get().record("encrypt-text", null, null, "failed", text.length(), (System.nanoTime() - start) / 1_000_000, e.getMessage());
             JOptionPane.showMessageDialog(this, "Encryption failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
@@ -781,6 +8219,14 @@ class DecryptionDialog extends JDialog {
         add(outputPanel, BorderLayout.SOUTH);
     }
     
+    // The application keeps one instance and resets it before each showing
+    void reset() {
+        setLocationRelativeTo(getParent());
+        inputArea.setText("");
+        keyField.setText("");
+        outputArea.setText("");
+    }
+    
     private void performDecryption() {
         String text = inputArea.getText().trim();
         String key = keyField.getText().trim();
@@ -790,10 +8236,13 @@ class DecryptionDialog extends JDialog {
             return;
         }
         
+        long start = System.nanoTime();
         try {
             String decrypted = encryptionModule.decryptText(text, key);
             outputArea.setText(decrypted);
+            AuditLog.get().record("decrypt-text", null, null, "ok", text.length(), (System.nanoTime() - start) / 1_000_000, null);
         } catch (Exception e) {
+            AuditLog.get().record("decrypt-text", null, null, "failed", text.length(), (System.nanoTime() - start) / 1_000_000, e.getMessage());
             JOptionPane.showMessageDialog(this, "Decryption failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
@@ -802,16 +8251,22 @@ class DecryptionDialog extends JDialog {
 // Compression Dialog
 class CompressionDialog extends JDialog {
     private JTextField inputFileField, outputFileField;
-    private JButton browseInputButton, browseOutputButton, compressButton;
+    private JButton browseInputButton, browseOutputButton, compressButton, cancelButton;
+    private JCheckBox parallelCheckBox, seekableCheckBox;
+    private JComboBox<Integer> levelComboBox;
+    private JComboBox<CompressionModule.Codec> codecComboBox;
     private JProgressBar progressBar;
     private JTextArea resultArea;
     private CompressionModule compressionModule;
     private InputModule inputModule;
+    private JobScheduler scheduler;
+    private JobScheduler.Job<CompressionModule.CompressionResult> currentJob;
     
-    public CompressionDialog(Frame parent, CompressionModule compressionModule) {
+    public CompressionDialog(Frame parent, CompressionModule compressionModule, JobScheduler scheduler) {
         super(parent, "Compress File", true);
         this.compressionModule = compressionModule;
         this.inputModule = new InputModule();
+        this.scheduler = scheduler;
         initializeComponents();
     }
     
@@ -856,9 +8311,35 @@ class CompressionDialog extends JDialog {
         progressBar.setStringPainted(true);
         progressPanel.add(progressBar, BorderLayout.CENTER);
         
+        JPanel actionPanel = new JPanel(new FlowLayout());
+        actionPanel.add(new JLabel("Level:"));
+        levelComboBox = new JComboBox<>(new Integer[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        levelComboBox.setSelectedItem(6);
+        actionPanel.add(levelComboBox);
+        
+        codecComboBox = new JComboBox<>(new CompressionModule.Codec[] {
+            CompressionModule.Codec.GZIP, CompressionModule.Codec.LZ4
+        });
+        codecComboBox.addActionListener(e -> updateOutputExtension());
+        actionPanel.add(codecComboBox);
+        
+        parallelCheckBox = new JCheckBox("Parallel (" + Runtime.getRuntime().availableProcessors() + " threads)");
+        actionPanel.add(parallelCheckBox);
+        
+        seekableCheckBox = new JCheckBox("Seekable");
+        seekableCheckBox.setToolTipText("Block-indexed archive that supports random-access decompression");
+        seekableCheckBox.addActionListener(e -> updateOutputExtension());
+        actionPanel.add(seekableCheckBox);
+        
         compressButton = new JButton("Compress");
         compressButton.addActionListener(e -> performCompression());
-        progressPanel.add(compressButton, BorderLayout.SOUTH);
+        actionPanel.add(compressButton);
+        
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> scheduler.cancel(currentJob));
+        actionPanel.add(cancelButton);
+        progressPanel.add(actionPanel, BorderLayout.SOUTH);
         
         // Result panel
         JPanel resultPanel = new JPanel(new BorderLayout());
@@ -873,16 +8354,53 @@ class CompressionDialog extends JDialog {
         add(resultPanel, BorderLayout.SOUTH);
     }
     
+    // The application keeps one instance and resets it before each showing;
+    // while a job started here is still running, the dialog keeps its state
+    void reset() {
+        setLocationRelativeTo(getParent());
+        if (!compressButton.isEnabled()) {
+            return;
+        }
+        inputFileField.setText("");
+        outputFileField.setText("");
+        levelComboBox.setSelectedItem(6);
+        parallelCheckBox.setSelected(false);
+        seekableCheckBox.setSelected(false);
+        codecComboBox.setSelectedItem(CompressionModule.Codec.GZIP);
+        updateOutputExtension();
+        progressBar.setValue(0);
+        progressBar.setString(null);
+        resultArea.setText("");
+        currentJob = null;
+    }
+    
     private void selectInputFile() {
         File file = inputModule.selectFile(this, "Select File to Compress");
         if (file != null) {
             inputFileField.setText(file.getAbsolutePath());
             // Auto-suggest output file name
-            String outputPath = file.getAbsolutePath() + ".gz";
+            String outputPath = file.getAbsolutePath() + outputExtension();
             outputFileField.setText(outputPath);
         }
     }
     
+    private String outputExtension() {
+        if (codecComboBox.getSelectedItem() == CompressionModule.Codec.LZ4) {
+            return ".lz4";
+        }
+        return seekableCheckBox.isSelected() ? ".spbz" : ".gz";
+    }
+    
+    private void updateOutputExtension() {
+        String outputPath = outputFileField.getText().trim();
+        if (outputPath.endsWith(".gz") || outputPath.endsWith(".lz4") || outputPath.endsWith(".spbz")) {
+            outputFileField.setText(outputPath.substring(0, outputPath.lastIndexOf('.')) + outputExtension());
+        }
+        boolean gzip = codecComboBox.getSelectedItem() == CompressionModule.Codec.GZIP;
+        levelComboBox.setEnabled(gzip);
+        seekableCheckBox.setEnabled(gzip);
+    }
+    
     private void selectOutputFile() {
         File file = inputModule.saveFile(this, "Save Compressed File");
         if (file != null) {
@@ -907,61 +8425,90 @@ class CompressionDialog extends JDialog {
             return;
         }
         
+        boolean parallel = parallelCheckBox.isSelected();
+        boolean fast = codecComboBox.getSelectedItem() == CompressionModule.Codec.LZ4;
+        boolean seekable = seekableCheckBox.isSelected();
+        int threadCount = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+        CompressionModule.CompressionConfig config =
+            compressionModule.getConfig().withLevel((Integer) levelComboBox.getSelectedItem());
         compressButton.setEnabled(false);
+        cancelButton.setEnabled(true);
         progressBar.setValue(0);
+        progressBar.setString(null);
         
-        SwingWorker<CompressionModule.CompressionResult, Integer> worker = new SwingWorker<CompressionModule.CompressionResult, Integer>() {
-            @Override
-            protected CompressionModule.CompressionResult doInBackground() throws Exception {
-                return compressionModule.compressFile(inputFile, outputFile, progress -> {
-                    publish(progress);
-                });
-            }
-            
-            @Override
-            protected void process(java.util.List<Integer> chunks) {
-                int latestProgress = chunks.get(chunks.size() - 1);
-                progressBar.setValue(latestProgress);
+        JobScheduler.Task<CompressionModule.CompressionResult> task = job -> {
+            job.audit("compress", inputFile, outputFile);
+            job.deleteOnCancel(outputFile);
+            if (fast) {
+                return compressionModule.compressFileFast(inputFile, outputFile, job);
             }
-            
-            @Override
-            protected void done() {
-                try {
-                    CompressionModule.CompressionResult result = get();
-                    resultArea.setText(result.toString());
-                    progressBar.setValue(100);
-                    JOptionPane.showMessageDialog(CompressionDialog.this, "Compression completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                } catch (Exception e) {
-                    resultArea.setText("Compression failed: " + e.getMessage());
-                    JOptionPane.showMessageDialog(CompressionDialog.this, "Compression failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                } finally {
-                    compressButton.setEnabled(true);
-                }
+            if (seekable) {
+                return compressionModule.compressFileIndexed(inputFile, outputFile, config, threadCount, job);
             }
+            if (parallel) {
+                return compressionModule.compressFileParallel(inputFile, outputFile, config,
+                    Runtime.getRuntime().availableProcessors(), job);
+            }
+            return compressionModule.compressFile(inputFile, outputFile, config, job);
         };
         
-        worker.execute();
+        try {
+            currentJob = scheduler.submit("Compress " + inputFile.getName(), JobScheduler.Kind.CPU,
+                JobScheduler.Priority.NORMAL, task, new JobScheduler.JobListener<CompressionModule.CompressionResult>() {
+                @Override
+                public void progressChanged(ProgressTracker.ProgressEvent event) {
+                    progressBar.setValue(event.percent);
+                    progressBar.setString(event.toString());
+                }
+                
+                @Override
+                public void finished(JobScheduler.Job<CompressionModule.CompressionResult> job) {
+                    try {
+                        CompressionModule.CompressionResult result = job.get();
+                        resultArea.setText(result.toString());
+                        progressBar.setValue(100);
+                        JOptionPane.showMessageDialog(CompressionDialog.this, "Compression completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    } catch (java.util.concurrent.CancellationException e) {
+                        resultArea.setText("Compression cancelled");
+                    } catch (Exception e) {
+                        resultArea.setText("Compression failed: " + e.getMessage());
+                        JOptionPane.showMessageDialog(CompressionDialog.this, "Compression failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    } finally {
+                        compressButton.setEnabled(true);
+                        cancelButton.setEnabled(false);
+                    }
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            compressButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+        }
     }
 }
 
 // Decompression Dialog
 class DecompressionDialog extends JDialog {
     private JTextField inputFileField, outputFileField;
-    private JButton browseInputButton, browseOutputButton, decompressButton;
+    private JTextField rangeOffsetField, rangeLengthField;
+    private JButton browseInputButton, browseOutputButton, decompressButton, cancelButton;
     private JProgressBar progressBar;
     private CompressionModule compressionModule;
     private InputModule inputModule;
+    private JobScheduler scheduler;
+    private JobScheduler.Job<Void> currentJob;
     
-    public DecompressionDialog(Frame parent, CompressionModule compressionModule) {
+    public DecompressionDialog(Frame parent, CompressionModule compressionModule, JobScheduler scheduler) {
         super(parent, "Decompress File", true);
         this.compressionModule = compressionModule;
         this.inputModule = new InputModule();
+        this.scheduler = scheduler;
         initializeComponents();
     }
     
     private void initializeComponents() {
         setLayout(new BorderLayout());
-        setSize(500, 200);
+        setSize(500, 230);
         setLocationRelativeTo(getParent());
         
         // File selection panel
@@ -993,6 +8540,22 @@ class DecompressionDialog extends JDialog {
         browseOutputButton.addActionListener(e -> selectOutputFile());
         filePanel.add(browseOutputButton, gbc);
         
+        gbc.gridx = 0; gbc.gridy = 2; gbc.anchor = GridBagConstraints.WEST;
+        filePanel.add(new JLabel("Range:"), gbc);
+        
+        gbc.gridx = 1; gbc.gridwidth = 2;
+        JPanel rangePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        rangePanel.add(new JLabel("Offset"));
+        rangeOffsetField = new JTextField(10);
+        rangePanel.add(rangeOffsetField);
+        rangePanel.add(new JLabel("Length"));
+        rangeLengthField = new JTextField(10);
+        rangeLengthField.setToolTipText("Leave empty to decompress to the end of the archive");
+        rangePanel.add(rangeLengthField);
+        rangePanel.add(new JLabel("(seekable archives only)"));
+        filePanel.add(rangePanel, gbc);
+        gbc.gridwidth = 1;
+        
         // Progress panel
         JPanel progressPanel = new JPanel(new BorderLayout());
         progressPanel.setBorder(BorderFactory.createTitledBorder("Progress"));
@@ -1000,14 +8563,36 @@ class DecompressionDialog extends JDialog {
         progressBar.setStringPainted(true);
         progressPanel.add(progressBar, BorderLayout.CENTER);
         
+        JPanel buttonPanel = new JPanel(new FlowLayout());
         decompressButton = new JButton("Decompress");
         decompressButton.addActionListener(e -> performDecompression());
-        progressPanel.add(decompressButton, BorderLayout.SOUTH);
+        buttonPanel.add(decompressButton);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> scheduler.cancel(currentJob));
+        buttonPanel.add(cancelButton);
+        progressPanel.add(buttonPanel, BorderLayout.SOUTH);
         
         add(filePanel, BorderLayout.NORTH);
         add(progressPanel, BorderLayout.CENTER);
     }
     
+    // The application keeps one instance and resets it before each showing;
+    // while a job started here is still running, the dialog keeps its state
+    void reset() {
+        setLocationRelativeTo(getParent());
+        if (!decompressButton.isEnabled()) {
+            return;
+        }
+        inputFileField.setText("");
+        outputFileField.setText("");
+        rangeOffsetField.setText("");
+        rangeLengthField.setText("");
+        progressBar.setValue(0);
+        progressBar.setString(null);
+        currentJob = null;
+    }
+    
     private void selectInputFile() {
         File file = inputModule.selectFile(this, "Select Compressed File");
         if (file != null) {
@@ -1016,6 +8601,10 @@ class DecompressionDialog extends JDialog {
             String outputPath = file.getAbsolutePath();
             if (outputPath.endsWith(".gz")) {
                 outputPath = outputPath.substring(0, outputPath.length() - 3);
+            } else if (outputPath.endsWith(".lz4")) {
+                outputPath = outputPath.substring(0, outputPath.length() - 4);
+            } else if (outputPath.endsWith(".spbz")) {
+                outputPath = outputPath.substring(0, outputPath.length() - 5);
             } else {
                 outputPath += ".decompressed";
             }
@@ -1047,39 +8636,76 @@ class DecompressionDialog extends JDialog {
             return;
         }
         
+        String offsetText = rangeOffsetField.getText().trim();
+        String lengthText = rangeLengthField.getText().trim();
+        boolean ranged = !offsetText.isEmpty() || !lengthText.isEmpty();
+        long rangeOffset;
+        long rangeLength;
+        try {
+            rangeOffset = offsetText.isEmpty() ? 0 : Long.parseLong(offsetText);
+            rangeLength = lengthText.isEmpty() ? CompressionModule.RANGE_TO_END : Long.parseLong(lengthText);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Range offset and length must be numbers", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!lengthText.isEmpty() && rangeLength <= 0) {
+            JOptionPane.showMessageDialog(this, "Range length must be positive; leave it empty to decompress to the end of the archive",
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
         decompressButton.setEnabled(false);
+        cancelButton.setEnabled(true);
         progressBar.setValue(0);
-        
-        SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                compressionModule.decompressFile(inputFile, outputFile, progress -> {
-                    publish(progress);
-                });
-                return null;
-            }
-            
-            @Override
-            protected void process(java.util.List<Integer> chunks) {
-                int latestProgress = chunks.get(chunks.size() - 1);
-                progressBar.setValue(latestProgress);
-            }
-            
-            @Override
-            protected void done() {
-                try {
-                    get();
-                    progressBar.setValue(100);
-                    JOptionPane.showMessageDialog(DecompressionDialog.this, "Decompression completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(DecompressionDialog.this, "Decompression failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                } finally {
-                    decompressButton.setEnabled(true);
+        progressBar.setString(null);
+        
+        JobScheduler.Task<Void> task = job -> {
+            job.audit("decompress", inputFile, outputFile);
+            job.deleteOnCancel(outputFile);
+            if (ranged) {
+                if (!compressionModule.isIndexedFile(inputFile)) {
+                    throw new IllegalArgumentException("Range decompression needs a seekable archive");
+                }
+                try (java.nio.channels.FileChannel channel = inputModule.openWriteChannel(outputFile)) {
+                    compressionModule.decompressRange(inputFile, rangeOffset, rangeLength, channel);
                 }
+                return null;
             }
+            compressionModule.decompressFile(inputFile, outputFile, job);
+            return null;
         };
         
-        worker.execute();
+        try {
+            currentJob = scheduler.submit("Decompress " + inputFile.getName(), JobScheduler.Kind.CPU,
+                JobScheduler.Priority.NORMAL, task, new JobScheduler.JobListener<Void>() {
+                @Override
+                public void progressChanged(ProgressTracker.ProgressEvent event) {
+                    progressBar.setValue(event.percent);
+                    progressBar.setString(event.toString());
+                }
+                
+                @Override
+                public void finished(JobScheduler.Job<Void> job) {
+                    try {
+                        job.get();
+                        progressBar.setValue(100);
+                        JOptionPane.showMessageDialog(DecompressionDialog.this, "Decompression completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    } catch (java.util.concurrent.CancellationException e) {
+                        progressBar.setValue(0);
+                        progressBar.setString(null);
+                    } catch (Exception e) {
+                        JOptionPane.showMessageDialog(DecompressionDialog.this, "Decompression failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    } finally {
+                        decompressButton.setEnabled(true);
+                        cancelButton.setEnabled(false);
+                    }
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            decompressButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+        }
     }
 }
 
@@ -1087,16 +8713,22 @@ class DecompressionDialog extends JDialog {
 class EmbedDialog extends JDialog {
     private JTextField dataFileField, imageFileField, outputFileField;
     private JButton browseDataButton, browseImageButton, browseOutputButton, embedButton;
-    private JCheckBox encryptCheckBox, compressCheckBox;
+    private JCheckBox encryptCheckBox, compressCheckBox, scatterCheckBox;
+    private JComboBox<CompressionModule.Codec> codecComboBox;
     private JTextField keyField;
     private JLabel imagePreviewLabel;
     private SteganographyModule steganographyModule;
+    private CompressionModule compressionModule;
     private InputModule inputModule;
+    private JobScheduler scheduler;
     
-    public EmbedDialog(Frame parent, SteganographyModule steganographyModule, InputModule inputModule) {
+    public EmbedDialog(Frame parent, SteganographyModule steganographyModule, CompressionModule compressionModule,
+                       InputModule inputModule, JobScheduler scheduler) {
         super(parent, "Embed Data in Image", true);
         this.steganographyModule = steganographyModule;
+        this.compressionModule = compressionModule;
         this.inputModule = inputModule;
+        this.scheduler = scheduler;
         initializeComponents();
     }
     
@@ -1154,8 +8786,15 @@ class EmbedDialog extends JDialog {
         
         encryptCheckBox = new JCheckBox("Encrypt Data");
         compressCheckBox = new JCheckBox("Compress Data");
+        codecComboBox = new JComboBox<>(new CompressionModule.Codec[] {
+            CompressionModule.Codec.GZIP, CompressionModule.Codec.LZ4, CompressionModule.Codec.DICTIONARY
+        });
+        scatterCheckBox = new JCheckBox("Scatter Bits");
+        scatterCheckBox.setToolTipText("Spread the data over pixels chosen by the key instead of filling rows from the top");
         optionsPanel.add(encryptCheckBox);
         optionsPanel.add(compressCheckBox);
+        optionsPanel.add(codecComboBox);
+        optionsPanel.add(scatterCheckBox);
         
         optionsPanel.add(new JLabel("Key:"));
         keyField = new JTextField(15);
@@ -1180,6 +8819,25 @@ class EmbedDialog extends JDialog {
         add(buttonPanel, BorderLayout.SOUTH);
     }
     
+    // The application keeps one instance and resets it before each showing;
+    // while a job started here is still running, the dialog keeps its state
+    void reset() {
+        setLocationRelativeTo(getParent());
+        if (!embedButton.isEnabled()) {
+            return;
+        }
+        dataFileField.setText("");
+        imageFileField.setText("");
+        outputFileField.setText("");
+        encryptCheckBox.setSelected(false);
+        compressCheckBox.setSelected(false);
+        scatterCheckBox.setSelected(false);
+        codecComboBox.setSelectedItem(CompressionModule.Codec.GZIP);
+        keyField.setText("");
+        imagePreviewLabel.setIcon(null);
+        imagePreviewLabel.setText("No image selected");
+    }
+    
     private void selectDataFile() {
         File file = inputModule.selectFile(this, "Select Data File");
         if (file != null) {
@@ -1205,26 +8863,50 @@ class EmbedDialog extends JDialog {
         }
     }
     
+    // Decoded off the EDT: the first ImageIO call also scans for reader plugins
     private void updateImagePreview(File imageFile) {
-        try {
-            BufferedImage image = ImageIO.read(imageFile);
-            // Scale image for preview
-            int maxWidth = 180;
-            int maxHeight = 130;
-            int width = image.getWidth();
-            int height = image.getHeight();
-            
-            double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
-            int scaledWidth = (int) (width * scale);
-            int scaledHeight = (int) (height * scale);
+        imagePreviewLabel.setIcon(null);
+        imagePreviewLabel.setText("Loading preview...");
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() throws IOException {
+                BufferedImage image = ImageIO.read(imageFile);
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                // Scale image for preview
+                int maxWidth = 180;
+                int maxHeight = 130;
+                int width = image.getWidth();
+                int height = image.getHeight();
+                
+                double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+                int scaledWidth = Math.max(1, (int) (width * scale));
+                int scaledHeight = Math.max(1, (int) (height * scale));
+                
+                BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D graphics = scaledImage.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+                graphics.dispose();
+                return scaledImage;
+            }
             
-            Image scaledImage = image.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-            imagePreviewLabel.setIcon(new ImageIcon(scaledImage));
-            imagePreviewLabel.setText("");
-        } catch (IOException e) {
-            imagePreviewLabel.setIcon(null);
-            imagePreviewLabel.setText("Preview not available");
-        }
+            @Override
+            protected void done() {
+                // Another image was chosen, or the dialog was reset, meanwhile
+                if (!imageFile.getAbsolutePath().equals(imageFileField.getText())) {
+                    return;
+                }
+                try {
+                    imagePreviewLabel.setIcon(new ImageIcon(get()));
+                    imagePreviewLabel.setText("");
+                } catch (Exception e) {
+                    imagePreviewLabel.setIcon(null);
+                    imagePreviewLabel.setText("Preview not available");
+                }
+            }
+        }.execute();
     }
     
     private void performEmbed() {
@@ -1246,55 +8928,61 @@ class EmbedDialog extends JDialog {
             return;
         }
         
+        boolean encrypt = encryptCheckBox.isSelected();
+        boolean compress = compressCheckBox.isSelected();
+        CompressionModule.Codec codec = (CompressionModule.Codec) codecComboBox.getSelectedItem();
+        boolean scatter = scatterCheckBox.isSelected();
+        String key = keyField.getText().trim();
         embedButton.setEnabled(false);
         
-        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                // Read data file
-                byte[] data = inputModule.readFileToBytes(dataFile);
-                
-                // Apply compression if selected
-                if (compressCheckBox.isSelected()) {
-                    CompressionModule compressionModule = new CompressionModule();
-                    data = compressionModule.compressData(data);
-                }
-                
-                // Apply encryption if selected
-                if (encryptCheckBox.isSelected()) {
-                    String key = keyField.getText().trim();
-                    if (key.isEmpty()) {
-                        throw new IllegalArgumentException("Encryption key is required when encryption is enabled");
-                    }
-                    EncryptionModule encryptionModule = new EncryptionModule();
-                    data = encryptionModule.encryptBytes(data, key);
-                }
-                
-                // Check if image can hold the data
-                if (!steganographyModule.canEmbedData(imageFile, data.length)) {
-                    throw new IllegalArgumentException("Image is too small to hold the data. Please select a larger image.");
-                }
-                
-                // Embed data in image
-                steganographyModule.embedDataInImage(imageFile, data, outputFile);
-                
-                return null;
+        JobScheduler.Task<Void> task = job -> {
+            job.audit(encrypt ? "embed-encrypted" : "embed", dataFile, outputFile);
+            if (encrypt && key.isEmpty()) {
+                throw new IllegalArgumentException("Encryption key is required when encryption is enabled");
+            }
+            if (scatter && key.isEmpty()) {
+                throw new IllegalArgumentException("A key is required when scattering is enabled");
             }
             
-            @Override
-            protected void done() {
+            // Stages are chained back to front: file -> compress -> encrypt -> LSB writer.
+            // The data moves through in chunks; the embed stream reports when the image is full.
+            SteganographyModule.EmbedStream embedStream = steganographyModule.openEmbedStream(imageFile,
+                scatter ? key : null);
+            OutputStream pipeline = embedStream;
+            if (encrypt) {
+                pipeline = new EncryptionModule().encryptingStream(pipeline, key);
+            }
+            if (compress) {
+                pipeline = compressionModule.packingStream(pipeline, codec, dataFile, true);
+            }
+            
+            try (OutputStream out = pipeline) {
+                inputModule.transfer(dataFile, out, job);
+            }
+            
+            // Embed data in image
+            embedStream.writeTo(outputFile);
+            
+            return null;
+        };
+        
+        try {
+            scheduler.submit("Embed into " + imageFile.getName(), JobScheduler.Kind.CPU, JobScheduler.Priority.NORMAL, task, job -> {
                 try {
-                    get();
+                    job.get();
                     JOptionPane.showMessageDialog(EmbedDialog.this, "Data embedded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (java.util.concurrent.CancellationException e) {
+                    // Cancelled from the job queue; nothing to report
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(EmbedDialog.this, "Embedding failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 } finally {
                     embedButton.setEnabled(true);
                 }
-            }
-        };
-        
-        worker.execute();
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            embedButton.setEnabled(true);
+        }
     }
 }
 
@@ -1306,12 +8994,17 @@ class ExtractDialog extends JDialog {
     private JTextField keyField;
     private JLabel imagePreviewLabel;
     private SteganographyModule steganographyModule;
+    private CompressionModule compressionModule;
     private InputModule inputModule;
+    private JobScheduler scheduler;
     
-    public ExtractDialog(Frame parent, SteganographyModule steganographyModule, InputModule inputModule) {
+    public ExtractDialog(Frame parent, SteganographyModule steganographyModule, CompressionModule compressionModule,
+                       InputModule inputModule, JobScheduler scheduler) {
         super(parent, "Extract Data from Image", true);
         this.steganographyModule = steganographyModule;
+        this.compressionModule = compressionModule;
         this.inputModule = inputModule;
+        this.scheduler = scheduler;
         initializeComponents();
     }
     
@@ -1382,6 +9075,22 @@ class ExtractDialog extends JDialog {
         add(buttonPanel, BorderLayout.SOUTH);
     }
     
+    // The application keeps one instance and resets it before each showing;
+    // while a job started here is still running, the dialog keeps its state
+    void reset() {
+        setLocationRelativeTo(getParent());
+        if (!extractButton.isEnabled()) {
+            return;
+        }
+        imageFileField.setText("");
+        outputFileField.setText("");
+        decryptCheckBox.setSelected(false);
+        decompressCheckBox.setSelected(false);
+        keyField.setText("");
+        imagePreviewLabel.setIcon(null);
+        imagePreviewLabel.setText("No image selected");
+    }
+    
     private void selectImageFile() {
         File file = inputModule.selectImageFile(this, "Select Stego Image");
         if (file != null) {
@@ -1400,26 +9109,50 @@ class ExtractDialog extends JDialog {
         }
     }
     
+    // Decoded off the EDT: the first ImageIO call also scans for reader plugins
     private void updateImagePreview(File imageFile) {
-        try {
-            BufferedImage image = ImageIO.read(imageFile);
-            // Scale image for preview
-            int maxWidth = 180;
-            int maxHeight = 130;
-            int width = image.getWidth();
-            int height = image.getHeight();
-            
-            double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
-            int scaledWidth = (int) (width * scale);
-            int scaledHeight = (int) (height * scale);
+        imagePreviewLabel.setIcon(null);
+        imagePreviewLabel.setText("Loading preview...");
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() throws IOException {
+                BufferedImage image = ImageIO.read(imageFile);
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                // Scale image for preview
+                int maxWidth = 180;
+                int maxHeight = 130;
+                int width = image.getWidth();
+                int height = image.getHeight();
+                
+                double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+                int scaledWidth = Math.max(1, (int) (width * scale));
+                int scaledHeight = Math.max(1, (int) (height * scale));
+                
+                BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D graphics = scaledImage.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+                graphics.dispose();
+                return scaledImage;
+            }
             
-            Image scaledImage = image.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-            imagePreviewLabel.setIcon(new ImageIcon(scaledImage));
-            imagePreviewLabel.setText("");
-        } catch (IOException e) {
-            imagePreviewLabel.setIcon(null);
-            imagePreviewLabel.setText("Preview not available");
-        }
+            @Override
+            protected void done() {
+                // Another image was chosen, or the dialog was reset, meanwhile
+                if (!imageFile.getAbsolutePath().equals(imageFileField.getText())) {
+                    return;
+                }
+                try {
+                    imagePreviewLabel.setIcon(new ImageIcon(get()));
+                    imagePreviewLabel.setText("");
+                } catch (Exception e) {
+                    imagePreviewLabel.setIcon(null);
+                    imagePreviewLabel.setText("Preview not available");
+                }
+            }
+        }.execute();
     }
     
     private void performExtract() {
@@ -1439,50 +9172,59 @@ class ExtractDialog extends JDialog {
             return;
         }
         
+        boolean decrypt = decryptCheckBox.isSelected();
+        boolean decompress = decompressCheckBox.isSelected();
+        String key = keyField.getText().trim();
         extractButton.setEnabled(false);
         
-        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                // Extract data from image
-                byte[] data = steganographyModule.extractDataFromImage(imageFile);
-                
-                // Apply decryption if selected
-                if (decryptCheckBox.isSelected()) {
-                    String key = keyField.getText().trim();
-                    if (key.isEmpty()) {
-                        throw new IllegalArgumentException("Decryption key is required when decryption is enabled");
-                    }
-                    EncryptionModule encryptionModule = new EncryptionModule();
-                    data = encryptionModule.decryptBytes(data, key);
+        JobScheduler.Task<Void> task = job -> {
+            job.audit(decrypt ? "extract-decrypted" : "extract", imageFile, outputFile);
+            if (decrypt && key.isEmpty()) {
+                throw new IllegalArgumentException("Decryption key is required when decryption is enabled");
+            }
+            
+            // Stages are chained front to back: LSB reader -> decrypt -> decompress -> file.
+            // Each read pulls just enough pixels through, so output is written as it is decoded.
+            // The image header says whether the key is also needed to find the scattered bits.
+            InputStream pipeline = steganographyModule.openExtractStream(imageFile, key.isEmpty() ? null : key, job);
+            try {
+                if (decrypt) {
+                    pipeline = new EncryptionModule().decryptingStream(pipeline, key);
                 }
-                
-                // Apply decompression if selected
-                if (decompressCheckBox.isSelected()) {
-                    CompressionModule compressionModule = new CompressionModule();
-                    data = compressionModule.decompressData(data);
+                // The payload header names the codec that was used
+                if (decompress) {
+                    pipeline = compressionModule.unpackingStream(pipeline);
                 }
-                
-                // Save extracted data
-                inputModule.writeBytesToFile(data, outputFile);
-                
-                return null;
+            } catch (IOException | RuntimeException e) {
+                pipeline.close();
+                throw e;
             }
             
-            @Override
-            protected void done() {
+            job.deleteOnCancel(outputFile);
+            try (InputStream in = pipeline) {
+                inputModule.transfer(in, outputFile);
+            }
+            
+            return null;
+        };
+        
+        try {
+            scheduler.submit("Extract from " + imageFile.getName(), JobScheduler.Kind.CPU, JobScheduler.Priority.NORMAL, task, job -> {
                 try {
-                    get();
+                    job.get();
                     JOptionPane.showMessageDialog(ExtractDialog.this, "Data extracted successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (java.util.concurrent.CancellationException e) {
+                    // Cancelled from the job queue; nothing to report
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(ExtractDialog.this, "Extraction failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 } finally {
                     extractButton.setEnabled(true);
                 }
-            }
-        };
-        
-        worker.execute();
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            extractButton.setEnabled(true);
+        }
     }
 }
 
@@ -1490,15 +9232,21 @@ class ExtractDialog extends JDialog {
 class CRCDialog extends JDialog {
     private JTextField fileField;
     private JButton browseButton, generateButton;
-    private JTextArea inputArea, resultArea;
+    private JTextArea inputArea, resultArea, textResultArea;
     private JTabbedPane tabbedPane;
+    private JTextField directoryField;
+    private JCheckBox verifyAllCheckBox;
+    private JButton scanButton;
+    private JTextArea scanResultArea;
     private CRCModule crcModule;
     private InputModule inputModule;
+    private JobScheduler scheduler;
     
-    public CRCDialog(Frame parent, CRCModule crcModule, InputModule inputModule) {
+    public CRCDialog(Frame parent, CRCModule crcModule, InputModule inputModule, JobScheduler scheduler) {
         super(parent, "CRC Generator and Verifier", true);
         this.crcModule = crcModule;
         this.inputModule = inputModule;
+        this.scheduler = scheduler;
         initializeComponents();
     }
     
@@ -1552,16 +9300,47 @@ class CRCDialog extends JDialog {
         
         JPanel textResultPanel = new JPanel(new BorderLayout());
         textResultPanel.setBorder(BorderFactory.createTitledBorder("CRC Result"));
-        resultArea = new JTextArea(6, 40);
-        resultArea.setEditable(false);
-        resultArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        textResultPanel.add(new JScrollPane(resultArea), BorderLayout.CENTER);
+        textResultArea = new JTextArea(6, 40);
+        textResultArea.setEditable(false);
+        textResultArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        textResultPanel.add(new JScrollPane(textResultArea), BorderLayout.CENTER);
         
         textPanel.add(textInputPanel, BorderLayout.NORTH);
         textPanel.add(textResultPanel, BorderLayout.CENTER);
         
+        // Directory scan tab
+        JPanel scanPanel = new JPanel(new BorderLayout());
+        
+        JPanel scanSelectPanel = new JPanel(new FlowLayout());
+        scanSelectPanel.add(new JLabel("Directory:"));
+        directoryField = new JTextField(20);
+        directoryField.setEditable(false);
+        scanSelectPanel.add(directoryField);
+        
+        JButton browseDirectoryButton = new JButton("Browse");
+        browseDirectoryButton.addActionListener(e -> selectDirectory());
+        scanSelectPanel.add(browseDirectoryButton);
+        
+        verifyAllCheckBox = new JCheckBox("Full Verify");
+        scanSelectPanel.add(verifyAllCheckBox);
+        
+        scanButton = new JButton("Scan");
+        scanButton.addActionListener(e -> scanDirectory());
+        scanSelectPanel.add(scanButton);
+        
+        JPanel scanResultPanel = new JPanel(new BorderLayout());
+        scanResultPanel.setBorder(BorderFactory.createTitledBorder("Scan Report"));
+        scanResultArea = new JTextArea(8, 40);
+        scanResultArea.setEditable(false);
+        scanResultArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        scanResultPanel.add(new JScrollPane(scanResultArea), BorderLayout.CENTER);
+        
+        scanPanel.add(scanSelectPanel, BorderLayout.NORTH);
+        scanPanel.add(scanResultPanel, BorderLayout.CENTER);
+        
         tabbedPane.addTab("File CRC", filePanel);
         tabbedPane.addTab("Text CRC", textPanel);
+        tabbedPane.addTab("Directory Scan", scanPanel);
         
         add(tabbedPane, BorderLayout.CENTER);
         
@@ -1569,6 +9348,23 @@ class CRCDialog extends JDialog {
         this.resultArea = fileResultArea; // This will be used for file results
     }
     
+    // The application keeps one instance and resets it before each showing;
+    // while a job started here is still running, the dialog keeps its state
+    void reset() {
+        setLocationRelativeTo(getParent());
+        if (!generateButton.isEnabled() || !scanButton.isEnabled()) {
+            return;
+        }
+        fileField.setText("");
+        resultArea.setText("");
+        inputArea.setText("");
+        textResultArea.setText("");
+        directoryField.setText("");
+        verifyAllCheckBox.setSelected(false);
+        scanResultArea.setText("");
+        tabbedPane.setSelectedIndex(0);
+    }
+    
     private void selectFile() {
         File file = inputModule.selectFile(this, "Select File for CRC");
         if (file != null) {
@@ -1576,6 +9372,56 @@ class CRCDialog extends JDialog {
         }
     }
     
+    private void selectDirectory() {
+        File directory = inputModule.selectDirectory(this, "Select Directory to Scan");
+        if (directory != null) {
+            directoryField.setText(directory.getAbsolutePath());
+        }
+    }
+    
+    private void scanDirectory() {
+        String directoryPath = directoryField.getText().trim();
+        if (directoryPath.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please select a directory", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        File directory = new File(directoryPath);
+        if (!directory.isDirectory()) {
+            JOptionPane.showMessageDialog(this, "Directory does not exist", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        boolean verifyAll = verifyAllCheckBox.isSelected();
+        scanButton.setEnabled(false);
+        scanResultArea.setText("Scanning " + directory.getAbsolutePath() + "...");
+        
+        JobScheduler.Task<IntegrityScanner.ScanReport> task = job -> {
+            job.audit("integrity-scan", directory, null);
+            return new IntegrityScanner().scan(directory, verifyAll);
+        };
+        
+        try {
+            // Scans can walk huge trees, so they yield to interactive jobs
+            scheduler.submit("Scan " + directory.getName(), JobScheduler.Kind.IO, JobScheduler.Priority.LOW, task, job -> {
+                try {
+                    scanResultArea.setText(job.get().toString());
+                    scanResultArea.setCaretPosition(0);
+                } catch (java.util.concurrent.CancellationException e) {
+                    scanResultArea.setText("Scan cancelled");
+                } catch (Exception e) {
+                    scanResultArea.setText("Scan failed: " + e.getMessage());
+                    JOptionPane.showMessageDialog(CRCDialog.this, "Scan failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                } finally {
+                    scanButton.setEnabled(true);
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            scanButton.setEnabled(true);
+        }
+    }
+    
     private void generateFileCRC() {
         String filePath = fileField.getText().trim();
         if (filePath.isEmpty()) {
@@ -1589,22 +9435,52 @@ class CRCDialog extends JDialog {
             return;
         }
         
+        generateButton.setEnabled(false);
+        resultArea.setText("Reading " + file.getName() + "...");
+        
+        // The shared module keeps one CRC32, so the job gets its own
+        JobScheduler.Task<Long> task = job -> {
+            job.audit("checksum", file, null);
+            return new CRCModule().generateCRC(file, job);
+        };
+        
         try {
-            long crc = crcModule.generateCRC(file);
-            String result = String.format(
-                "File: %s\n" +
-                "Size: %d bytes\n" +
-                "CRC32: %08X (%d)\n" +
-                "Generated at: %s",
-                file.getName(),
-                file.length(),
-                crc,
-                crc,
-                java.time.LocalDateTime.now().toString()
-            );
-            resultArea.setText(result);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            scheduler.submit("CRC " + file.getName(), JobScheduler.Kind.IO, JobScheduler.Priority.NORMAL, task,
+                new JobScheduler.JobListener<Long>() {
+                @Override
+                public void progressChanged(ProgressTracker.ProgressEvent event) {
+                    resultArea.setText("Reading " + file.getName() + ": " + event);
+                }
+                
+                @Override
+                public void finished(JobScheduler.Job<Long> job) {
+                    try {
+                        long crc = job.get();
+                        String result = String.format(
+                            "File: %s\n" +
+                            "Size: %d bytes\n" +
+                            "CRC32: %08X (%d)\n" +
+                            "Generated at: %s",
+                            file.getName(),
+                            file.length(),
+                            crc,
+                            crc,
+                            java.time.LocalDateTime.now().toString()
+                        );
+                        resultArea.setText(result);
+                    } catch (java.util.concurrent.CancellationException e) {
+                        resultArea.setText("CRC cancelled");
+                    } catch (Exception e) {
+                        resultArea.setText("");
+                        JOptionPane.showMessageDialog(CRCDialog.this, "Error reading file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    } finally {
+                        generateButton.setEnabled(true);
+                    }
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            generateButton.setEnabled(true);
         }
     }
     
@@ -1628,11 +9504,236 @@ class CRCDialog extends JDialog {
             java.time.LocalDateTime.now().toString()
         );
         
-        // Get the result area from the current tab
-        JPanel currentPanel = (JPanel) tabbedPane.getSelectedComponent();
-        JPanel resultPanel = (JPanel) currentPanel.getComponent(1);
-        JScrollPane scrollPane = (JScrollPane) resultPanel.getComponent(0);
-        JTextArea currentResultArea = (JTextArea) scrollPane.getViewport().getView();
-        currentResultArea.setText(result);
+        textResultArea.setText(result);
+    }
+}
+
+// Job Queue Panel
+class JobQueuePanel extends JPanel {
+    private static final String[] COLUMNS = { "Job", "Pool", "Priority", "Status", "Progress", "Time" };
+    
+    private final JobScheduler scheduler;
+    private final JTable table;
+    private final JobTableModel model = new JobTableModel();
+    private final JComboBox<JobScheduler.Priority> priorityComboBox;
+    
+    public JobQueuePanel(JobScheduler scheduler) {
+        super(new BorderLayout());
+        this.scheduler = scheduler;
+        setBorder(BorderFactory.createTitledBorder("Job Queue"));
+        
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(260);
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(600, 110));
+        add(scrollPane, BorderLayout.CENTER);
+        
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        priorityComboBox = new JComboBox<>(JobScheduler.Priority.values());
+        priorityComboBox.setSelectedItem(JobScheduler.Priority.NORMAL);
+        JButton priorityButton = new JButton("Set Priority");
+        priorityButton.addActionListener(e -> reprioritizeSelected());
+        JButton cancelButton = new JButton("Cancel Job");
+        cancelButton.addActionListener(e -> cancelSelected());
+        JButton clearButton = new JButton("Clear Finished");
+        clearButton.addActionListener(e -> scheduler.clearFinished());
+        buttonPanel.add(priorityComboBox);
+        buttonPanel.add(priorityButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(clearButton);
+        add(buttonPanel, BorderLayout.SOUTH);
+        
+        scheduler.addChangeListener(model::refresh);
+        // Keeps the elapsed time of running jobs ticking between progress updates
+        new javax.swing.Timer(500, e -> {
+            if (model.hasRunningJobs()) {
+                model.refresh();
+            }
+        }).start();
+    }
+    
+    private JobScheduler.Job<?> selectedJob() {
+        int row = table.getSelectedRow();
+        return row < 0 ? null : model.jobAt(row);
+    }
+    
+    private void cancelSelected() {
+        JobScheduler.Job<?> job = selectedJob();
+        if (job != null) {
+            scheduler.cancel(job);
+        }
+    }
+    
+    private void reprioritizeSelected() {
+        JobScheduler.Job<?> job = selectedJob();
+        if (job != null && !scheduler.reprioritize(job, (JobScheduler.Priority) priorityComboBox.getSelectedItem())) {
+            JOptionPane.showMessageDialog(this, "Only queued jobs can change priority", "Job Queue", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+    
+    private class JobTableModel extends javax.swing.table.AbstractTableModel {
+        private java.util.List<JobScheduler.Job<?>> rows = new java.util.ArrayList<>();
+        
+        void refresh() {
+            JobScheduler.Job<?> selected = selectedJob();
+            rows = scheduler.getJobs();
+            fireTableDataChanged();
+            int row = rows.indexOf(selected);
+            if (row >= 0) {
+                table.setRowSelectionInterval(row, row);
+            }
+        }
+        
+        JobScheduler.Job<?> jobAt(int row) {
+            return rows.get(row);
+        }
+        
+        boolean hasRunningJobs() {
+            for (JobScheduler.Job<?> job : rows) {
+                if (job.getStatus() == JobScheduler.Status.RUNNING) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+        
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+        
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+        
+        @Override
+        public Object getValueAt(int row, int column) {
+            JobScheduler.Job<?> job = rows.get(row);
+            switch (column) {
+                case 0:
+                    return job.name;
+                case 1:
+                    return job.kind;
+                case 2:
+                    return job.getPriority();
+                case 3:
+                    return job.getStatus();
+                case 4:
+                    return job.getStatus() == JobScheduler.Status.RUNNING ? job.getProgressEvent().toString() : job.getProgress() + "%";
+                default:
+                    return String.format("%.1f s", job.getElapsedMillis() / 1000.0);
+            }
+        }
+    }
+}
+
+// Log Buffer Class
+// List model for the application log. Messages may be added from any thread;
+// they wait in a pending ring and reach the model in one batch per flush, so
+// a burst of messages costs one repaint instead of one per line. Both rings
+// have a fixed capacity: once full, the oldest lines are dropped.
+class LogBuffer extends javax.swing.AbstractListModel<String> {
+    public static final int DEFAULT_CAPACITY = 5000;
+    public static final int FLUSH_INTERVAL_MILLIS = 200;
+    
+    // Model side, touched only on the event dispatch thread
+    private final String[] lines;
+    private int head;
+    private int size;
+    
+    // Producer side, guarded by pending
+    private final String[] pending;
+    private int pendingHead;
+    private int pendingSize;
+    private boolean flushScheduled;
+    
+    private final javax.swing.Timer flushTimer;
+    
+    public LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public LogBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Log capacity must be positive");
+        }
+        this.lines = new String[capacity];
+        this.pending = new String[capacity];
+        this.flushTimer = new javax.swing.Timer(FLUSH_INTERVAL_MILLIS, e -> flush());
+        this.flushTimer.setRepeats(false);
+    }
+    
+    // Safe from any thread; a multi-line message becomes one entry per line
+    public void append(String message) {
+        boolean schedule;
+        synchronized (pending) {
+            for (String line : message.split("\n", -1)) {
+                pending[(pendingHead + pendingSize) % pending.length] = line;
+                if (pendingSize < pending.length) {
+                    pendingSize++;
+                } else {
+                    pendingHead = (pendingHead + 1) % pending.length;
+                }
+            }
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            SwingUtilities.invokeLater(flushTimer::restart);
+        }
+    }
+    
+    /**
+     * Moves pending lines into the model and fires at most one removal and
+     * one addition event. Runs on the event dispatch thread.
+     */
+    void flush() {
+        String[] batch;
+        synchronized (pending) {
+            batch = new String[pendingSize];
+            for (int i = 0; i < pendingSize; i++) {
+                batch[i] = pending[(pendingHead + i) % pending.length];
+                pending[(pendingHead + i) % pending.length] = null;
+            }
+            pendingHead = 0;
+            pendingSize = 0;
+            flushScheduled = false;
+        }
+        if (batch.length == 0) {
+            return;
+        }
+        
+        int evicted = Math.max(0, size + batch.length - lines.length);
+        int removed = Math.min(evicted, size);
+        for (String line : batch) {
+            lines[(head + size) % lines.length] = line;
+            if (size < lines.length) {
+                size++;
+            } else {
+                head = (head + 1) % lines.length;
+            }
+        }
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        int added = Math.min(batch.length, lines.length);
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        return lines[(head + index) % lines.length];
     }
 }